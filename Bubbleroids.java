@@ -6,6 +6,11 @@
 *
 *  <applet code="Bubbleroids" archive="Bubbleroids.jar" width=500 height=400></applet>
 *
+*  java -jar Bubbleroids.jar [name=value ...]
+*
+*  Entity limits, timing and the storm stress mode can be set with applet parameters or
+*  name=value arguments, see BubbleroidsConfig.java.
+*
 *  Keyboard Controls:
 *
 *  S            - Start Game    P           - Pause Game
@@ -13,200 +18,69 @@
 *  Cursor Right - Rotate Right  Cursor Down - Fire Retro Thrusters
 *  Spacebar     - Fire Cannon   H           - Hyperspace
 *  M            - Toggle Sound  D           - Toggle Graphics Detail
-*  U            - Launch UFO
+*  U            - Launch UFO    T           - Toggle Timing Display
+*  R (held)     - Rewind
 *
 ************************************************************************************************/
 
 import java.awt.*;
-import java.net.*;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.applet.Applet;
-import java.applet.AudioClip;
 import javax.swing.*;
 
-/************************************************************************************************
-*  The BubbleroidsSprite class defines a game object, including it's shape, position, movement and
-*  rotation. It also can determine if two objects collide.
-************************************************************************************************/
-
-class BubbleroidsSprite {
-   // Fields:
-
-   static int width, width2;     // Dimensions of the graphics area.
-   static int height, height2;
-
-   Polygon shape;                // Initial sprite shape, centered at the origin (0,0).
-   double  radius;               // Radius of bubbleroid sprites.
-   boolean active;               // Active flag.
-   double  angle;                // Current angle of rotation.
-   double  deltaAngle;           // Amount to change the rotation angle.
-   double  currentX, currentY;   // Current position on screen.
-   double  deltaX, deltaY;       // Amount to change the screen position.
-   Color   color;                // Color.
-   Polygon sprite;               // Final location and shape of sprite after applying rotation and
-                                 // moving to screen position. Used for drawing on the screen and
-                                 // in detecting collisions.
-
-   // Constructors:
-
-   public BubbleroidsSprite()
-   {
-      this.shape      = new Polygon();
-      this.radius     = -1.0;
-      this.active     = false;
-      this.angle      = 0.0;
-      this.deltaAngle = 0.0;
-      this.currentX   = 0.0;
-      this.currentY   = 0.0;
-      this.deltaX     = 0.0;
-      this.deltaY     = 0.0;
-      this.color      = Color.white;
-      this.sprite     = new Polygon();
-   }
-
-
-   // Methods:
-
-   public void advance()
-   {
-      // Update the rotation and position of the sprite based on the delta values. If the sprite
-      // moves off the edge of the screen, it is wrapped around to the other side.
-
-      this.angle += this.deltaAngle;
-      if (this.angle < 0)
-      {
-         this.angle += 2 * Math.PI;
-      }
-      if (this.angle > 2 * Math.PI)
-      {
-         this.angle -= 2 * Math.PI;
-      }
-      this.currentX += this.deltaX;
-      if (this.currentX < -width2)
-      {
-         this.currentX += width;
-      }
-      if (this.currentX > width2)
-      {
-         this.currentX -= width;
-      }
-      this.currentY -= this.deltaY;
-      if (this.currentY < -height2)
-      {
-         this.currentY += height;
-      }
-      if (this.currentY > height2)
-      {
-         this.currentY -= height;
-      }
-   }
-
-
-   public void render()
-   {
-      int i;
-
-      // Render the sprite's shape and location by rotating it's base shape and moving it to
-      // it's proper screen position.
-
-      this.sprite = new Polygon();
-      for (i = 0; i < this.shape.npoints; i++)
-      {
-         this.sprite.addPoint((int)Math.round(this.shape.xpoints[i] * Math.cos(this.angle) + this.shape.ypoints[i] * Math.sin(this.angle)) + (int)Math.round(this.currentX) + width2,
-                              (int)Math.round(this.shape.ypoints[i] * Math.cos(this.angle) - this.shape.xpoints[i] * Math.sin(this.angle)) + (int)Math.round(this.currentY) + height2);
-      }
-   }
-
-
-   public boolean isColliding(BubbleroidsSprite s)
-   {
-      int i;
-
-      // Determine if one sprite overlaps with another, i.e., if any vertice
-      // of one sprite lands inside the other.
-
-      for (i = 0; i < s.sprite.npoints; i++)
-      {
-         if (this.sprite.inside(s.sprite.xpoints[i], s.sprite.ypoints[i]))
-         {
-            return(true);
-         }
-      }
-      for (i = 0; i < this.sprite.npoints; i++)
-      {
-         if (s.sprite.inside(this.sprite.xpoints[i], this.sprite.ypoints[i]))
-         {
-            return(true);
-         }
-      }
-      return(false);
-   }
-}
-
 /************************************************************************************************
 *  Main applet code.
 ************************************************************************************************/
 
 public class Bubbleroids extends Applet implements Runnable {
-   // Thread control variables.
+   // Thread control variables. The sounds are loaded on one thread and the game loop runs on
+   // another, one loop at a time, so a restarted loop only begins once the stopped one is done.
 
-   Thread loadThread;
-   Thread loopThread;
+   ExecutorService  loadExecutor;
+   ExecutorService  loopExecutor;
+   Future<?>        loadTask;
+   Future<?>        loopTask;
+   BubbleroidsPacer pacer = new BubbleroidsPacer();
 
    // Constants
 
-   static final int DELAY = 50;            // Milliseconds between screen updates.
-
-   static final int MAX_SHIPS = 3;         // Starting number of ships per game.
-
-   static final int MAX_SHOTS   = 6;       // Maximum number of sprites for photons,
-   static final int MAX_BUBBLES = 8;       // bubbleroids and explosions.
-   static final int MAX_SCRAP   = 20;
-
-   static final int SCRAP_COUNT = 30;       // Counter starting values.
-   static final int HYPER_COUNT = 60;
-   static final int STORM_PAUSE = 30;
-   static final int UFO_PASSES  = 3;
+   static final int DELAY          = 50;   // Milliseconds between game ticks.
+   static final int MAX_FRAME_SKIP = 5;    // Most ticks to run between two frames.
 
-   static final int NUM_BUBBLE_SIDES = 12;    // Bubbleroid shape and size ranges.
-   static final int MIN_BUBBLE_SIZE  = 20;
-   static final int MAX_BUBBLE_SIZE  = 40;
-   static final int MIN_BUBBLE_SPEED = 2;
-   static final int MAX_BUBBLE_SPEED = 12;
+   static final int START  = 0x01;         // Commands for the game loop to carry out before
+   static final int QUIT   = 0x02;         // its next tick.
+   static final int DETAIL = 0x04;
 
-   static final int BIG_POINTS    = 25;     // Points for shooting different objects.
-   static final int SMALL_POINTS  = 50;
-   static final int UFO_POINTS    = 250;
-   static final int MISSLE_POINTS = 500;
+   // Space, and the screen that puts frames on it.
 
-   static final int NEW_SHIP_POINTS = 5000; // Number of points needed to earn a new ship.
-   static final int NEW_UFO_POINTS  = 2750; // Number of points between flying saucers.
+   Canvas            space;
+   Dimension         spaceDimension;
+   BubbleroidsScreen screen;
+   double            shownAlpha;
 
-   // Space (double buffered).
+   // The canvas size waiting to be fitted to, or null, and the pixels per unit of space the
+   // display had to begin with.
 
-   Canvas    space;
-   Dimension spaceDimension;
-   Graphics  spaceGraphics;
-   Image     spaceImage;
-   Graphics  spaceImageGraphics;
+   volatile Dimension resized;
+   double             dpiScale = 1.0;
 
-   // Background stars.
+   // What draws the frames.
 
-   int numStars;
-   Point[] stars;
+   BubbleroidsView view;
 
    // Game data.
 
-   int score;
-   int highScore;
-   int newShipScore;
-   int newUfoScore;
+   BubbleroidsConfig config;
+   BubbleroidsGame   game;
+   BubbleroidsRewind rewind;
 
-   boolean loaded = false;
-   boolean paused;
-   boolean playing;
-   boolean sound;
-   boolean detail;
+   volatile boolean loaded = false;
+   volatile boolean paused;
+   volatile boolean running;
+   volatile boolean sound;
+   volatile boolean timing;
 
    // Control panel.
 
@@ -215,76 +89,29 @@ public class Bubbleroids extends Applet implements Runnable {
    Checkbox pauseCheck;
    Checkbox muteCheck;
 
-   // Key flags.
-
-   boolean left  = false;
-   boolean right = false;
-   boolean up    = false;
-   boolean down  = false;
-
-   // Sprite objects.
-
-   BubbleroidsSprite ship;
-   BubbleroidsSprite ufo;
-   BubbleroidsSprite missile;
-   BubbleroidsSprite[] photons     = new BubbleroidsSprite[MAX_SHOTS];
-   BubbleroidsSprite[] bubbleroids = new BubbleroidsSprite[MAX_BUBBLES];
-   BubbleroidsSprite[] explosions  = new BubbleroidsSprite[MAX_SCRAP];
-
-   // Ship data.
-
-   int shipsLeft;      // Number of ships left to play, including current one.
-   int shipCounter;    // Time counter for ship explosion.
-   int hyperCounter;   // Time counter for hyperspace.
-
-   // Photon data.
-
-   int[] photonCounter = new int[MAX_SHOTS];   // Time counter for life of a photon.
-   int photonIndex;                            // Next available photon sprite.
-
-   // Flying saucer data.
+   // Key flags. Held keys are passed to the game every tick, actions only on the next tick.
+   // Commands from the control panel and keys that change the game or how it is drawn are
+   // carried out by the game loop too, so they never happen part way through a tick.
 
-   int ufoPassesLeft;   // Number of flying saucer passes.
-   int ufoCounter;      // Time counter for each pass.
+   int keys;
+   int actions;
+   int commands;
+   volatile boolean rewinding;
 
-   // Missile data.
+   // Sounds, and what plays them.
 
-   int missileCounter;   // Counter for life of missile.
+   BubbleroidsAudio       audio;
+   BubbleroidsAudio.Sound crashSound;
+   BubbleroidsAudio.Sound explosionSound;
+   BubbleroidsAudio.Sound fireSound;
+   BubbleroidsAudio.Sound missileSound;
+   BubbleroidsAudio.Sound saucerSound;
+   BubbleroidsAudio.Sound thrustersSound;
+   BubbleroidsAudio.Sound warpSound;
 
-   // Bubbleroid data.
+   // Font of the text drawn over the game.
 
-   boolean[] bubbleroidIsSmall = new boolean[MAX_BUBBLES]; // Bubbleroid size flag.
-   int bubbleroidsCounter;                                 // Break-time counter.
-   int bubbleroidsSpeed;                                   // Bubbleroid speed.
-   int bubbleroidsLeft;                                    // Number of active bubbleroids.
-
-   // Explosion data.
-
-   int[] explosionCounter = new int[MAX_SCRAP]; // Time counters for explosions.
-   int explosionIndex;                          // Next available explosion sprite.
-
-   // Sound clips.
-
-   AudioClip crashSound;
-   AudioClip explosionSound;
-   AudioClip fireSound;
-   AudioClip missileSound;
-   AudioClip saucerSound;
-   AudioClip thrustersSound;
-   AudioClip warpSound;
-
-   // Flags for looping sound clips.
-
-   boolean thrustersPlaying;
-   boolean saucerPlaying;
-   boolean missilePlaying;
-
-   // Font data.
-
-   Font        font = new Font("Helvetica", Font.BOLD, 12);
-   FontMetrics fm;
-   int         fontWidth;
-   int         fontHeight;
+   Font font = new Font("Helvetica", Font.BOLD, 12);
 
    // Applet information.
 
@@ -296,29 +123,73 @@ public class Bubbleroids extends Applet implements Runnable {
 
    public void init()
    {
-      Graphics  g;
       Dimension d;
       int       i;
 
-      // Find the size of the screen and set the values for sprites.
+      // Read the settings if they were not given to main().
+
+      if (config == null)
+      {
+         config = new BubbleroidsConfig();
+         for (i = 0; i < BubbleroidsConfig.NAMES.length; i++)
+         {
+            if (getParameter(BubbleroidsConfig.NAMES[i]) != null)
+            {
+               try
+               {
+                  config.set(BubbleroidsConfig.NAMES[i], getParameter(BubbleroidsConfig.NAMES[i]));
+               }
+               catch (IllegalArgumentException e) {
+                  showStatus(e.getMessage());
+               }
+            }
+         }
+      }
+
+      // Find the size of the screen and create the game, with space as large as the screen
+      // would be on a display of ordinary resolution.
 
-      g        = getGraphics();
       d        = size();
       d.height = (int)((double)d.height * .9);
-      BubbleroidsSprite.width   = d.width;
-      BubbleroidsSprite.width2  = d.width / 2;
-      BubbleroidsSprite.height  = d.height;
-      BubbleroidsSprite.height2 = d.height / 2;
+      game     = new BubbleroidsGame((int)Math.round(d.width / dpiScale), (int)Math.round(d.height / dpiScale), config);
+      if (config.rewind > 0)
+      {
+         rewind = new BubbleroidsRewind(game, config.rewind);
+      }
 
       // Create space.
 
-      space          = new Canvas();
+      space = new Canvas()
+      {
+         public void paint(Graphics g)
+         {
+            Bubbleroids.this.paint(g);
+         }
+
+
+         public void update(Graphics g)
+         {
+            Bubbleroids.this.paint(g);
+         }
+      };
       spaceDimension = d;
       space.setBounds(0, 0, d.width, d.height);
+      space.setPreferredSize(d);
       add(space);
-      spaceGraphics      = space.getGraphics();
-      spaceImage         = createImage(d.width, d.height);
-      spaceImageGraphics = spaceImage.getGraphics();
+
+      // Set up the drawing of frames, with the starry background drawn the first time it is
+      // needed.
+
+      view = new BubbleroidsView(game, space, font, config.parallax, d.width, d.height);
+      if (config.raster > 0)
+      {
+         view.raster = new BubbleroidsRaster(d.width, d.height, config.raster);
+      }
+      else if ((config.dirty > 0) && (config.parallax == 0))
+      {
+         view.dirty = new BubbleroidsDirty(d.width, d.height);
+      }
+      screen = new BubbleroidsScreen(space, d.width, d.height, view.dirty != null);
 
       // Control panel.
 
@@ -331,1119 +202,523 @@ public class Bubbleroids extends Applet implements Runnable {
       muteCheck = new Checkbox("Mute");
       controls.add(muteCheck);
 
-      // Generate starry background.
-
-      numStars = BubbleroidsSprite.width * BubbleroidsSprite.height / 5000;
-      stars    = new Point[numStars];
-      for (i = 0; i < numStars; i++)
-      {
-         stars[i] = new Point((int)(Math.random() * BubbleroidsSprite.width), (int)(Math.random() * BubbleroidsSprite.height));
-      }
-
-      // Create shape for the ship sprite.
-
-      ship = new BubbleroidsSprite();
-      ship.shape.addPoint(0, -10);
-      ship.shape.addPoint(7, 10);
-      ship.shape.addPoint(-7, 10);
-
-      // Create shape for the photon sprites.
-
-      for (i = 0; i < MAX_SHOTS; i++)
-      {
-         photons[i] = new BubbleroidsSprite();
-         photons[i].shape.addPoint(1, 1);
-         photons[i].shape.addPoint(1, -1);
-         photons[i].shape.addPoint(-1, 1);
-         photons[i].shape.addPoint(-1, -1);
-      }
-
-      // Create shape for the flying saucer.
-
-      ufo = new BubbleroidsSprite();
-      ufo.shape.addPoint(-15, 0);
-      ufo.shape.addPoint(-10, -5);
-      ufo.shape.addPoint(-5, -5);
-      ufo.shape.addPoint(-5, -9);
-      ufo.shape.addPoint(5, -9);
-      ufo.shape.addPoint(5, -5);
-      ufo.shape.addPoint(10, -5);
-      ufo.shape.addPoint(15, 0);
-      ufo.shape.addPoint(10, 5);
-      ufo.shape.addPoint(-10, 5);
-
-      // Create shape for the guided missile.
-
-      missile = new BubbleroidsSprite();
-      missile.shape.addPoint(0, -4);
-      missile.shape.addPoint(1, -3);
-      missile.shape.addPoint(1, 3);
-      missile.shape.addPoint(2, 4);
-      missile.shape.addPoint(-2, 4);
-      missile.shape.addPoint(-1, 3);
-      missile.shape.addPoint(-1, -3);
-
-      // Create bubbleroid sprites.
-
-      for (i = 0; i < MAX_BUBBLES; i++)
-      {
-         bubbleroids[i] = new BubbleroidsSprite();
-      }
-
-      // Create explosion sprites.
-
-      for (i = 0; i < MAX_SCRAP; i++)
-      {
-         explosions[i] = new BubbleroidsSprite();
-      }
-
-      // Set font data.
-
-      g.setFont(font);
-      fm         = g.getFontMetrics();
-      fontWidth  = fm.getMaxAdvance();
-      fontHeight = fm.getHeight();
-
       // Initialize game data and put us in 'game over' mode.
 
-      highScore = 0;
-      sound     = true;
-      detail    = true;
+      sound = true;
       initGame();
-      endGame();
-   }
-
-
-   public void initGame()
-   {
-      // Initialize game data and sprites.
-
-      score            = 0;
-      shipsLeft        = MAX_SHIPS;
-      bubbleroidsSpeed = MIN_BUBBLE_SPEED;
-      newShipScore     = NEW_SHIP_POINTS;
-      newUfoScore      = NEW_UFO_POINTS;
-      initShip();
-      initPhotons();
-      stopUfo();
-      stopMissile();
-      initBubbleroids();
-      initExplosions();
-      playing = true;
-      paused  = false;
-      pauseCheck.setState(false);
+      game.endGame();
    }
 
 
-   public void endGame()
+   public void doLayout()
    {
-      // Stop ship, flying saucer, guided missile and associated sounds.
-
-      playing = false;
-      stopShip();
-      stopUfo();
-      stopMissile();
-   }
+      Dimension d;
 
+      // Stretch space over the applet's new size before laying it out. The frames are fitted
+      // to it on the next one drawn.
 
-   public void start()
-   {
-      if (loopThread == null)
-      {
-         loopThread = new Thread(this);
-         loopThread.start();
-      }
-      if (!loaded && (loadThread == null))
+      d        = getSize();
+      d.height = (int)((double)d.height * .9);
+      if ((space != null) && (d.width > 0) && (d.height > 0) && !d.equals(space.getPreferredSize()))
       {
-         loadThread = new Thread(this);
-         loadThread.start();
+         space.setPreferredSize(d);
+         space.setSize(d);
+         resized = d;
       }
+      super.doLayout();
    }
 
 
-   public void stop()
+   public void initGame()
    {
-      if (loopThread != null)
+      game.initGame();
+      showStatus("Seed " + game.seed);
+      if (rewind != null)
       {
-         loopThread.stop();
-         loopThread = null;
+         rewind.clear();
       }
-      if (loadThread != null)
+      if (config.record != null)
       {
-         loadThread.stop();
-         loadThread = null;
+         game.recording = new BubbleroidsReplay(game);
       }
+      setPaused(false);
+      pauseCheck.setState(false);
    }
 
 
-   public void run()
+   public void start()
    {
-      int  i, j;
-      long startTime;
-
-      // Lower this thread's priority and get the current time.
-
-      Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-      startTime = System.currentTimeMillis();
-
-      // Run thread for loading sounds.
-
-      if (!loaded && (Thread.currentThread() == loadThread))
+      if (loopExecutor == null)
       {
-         loadSounds();
-         loaded = true;
-         loadThread.stop();
+         loadExecutor = Executors.newSingleThreadExecutor(threads("Bubbleroids loader"));
+         loopExecutor = Executors.newSingleThreadExecutor(threads("Bubbleroids loop"));
       }
-
-      // This is the main loop.
-
-      while (Thread.currentThread() == loopThread)
+      if (!loaded && (loadTask == null))
       {
-         if (!paused)
+         loadTask = loadExecutor.submit(new Runnable()
          {
-            // Move and process all sprites.
-
-            updateShip();
-            updatePhotons();
-            updateUfo();
-            updateMissile();
-            updateBubbleroids();
-            updateExplosions();
-
-            // Check the score and advance high score, add a new ship or start the flying
-            // saucer as necessary.
-
-            if (score > highScore)
-            {
-               highScore = score;
-            }
-            if (score > newShipScore)
-            {
-               newShipScore += NEW_SHIP_POINTS;
-               shipsLeft++;
-            }
-            if (playing && (score > newUfoScore) && !ufo.active)
-            {
-               newUfoScore  += NEW_UFO_POINTS;
-               ufoPassesLeft = UFO_PASSES;
-               initUfo();
-            }
-
-            // If all bubbleroids have been destroyed create a new batch.
-
-            if (bubbleroidsLeft <= 0)
+            public void run()
             {
-               if (--bubbleroidsCounter <= 0)
-               {
-                  initBubbleroids();
-               }
+               loadSounds();
+               loaded = true;
             }
-         }
-
-         // Update the screen and set the timer for the next loop.
-
-         repaint();
-         try {
-            startTime += DELAY;
-            Thread.sleep(Math.max(0, startTime - System.currentTimeMillis()));
-         }
-         catch (InterruptedException e) {
-            break;
-         }
+         });
       }
-   }
-
-
-   public void loadSounds()
-   {
-      crashSound     = loadSound("crash.au");
-      explosionSound = loadSound("explosion.au");
-      fireSound      = loadSound("fire.au");
-      missileSound   = loadSound("missile.au");
-      saucerSound    = loadSound("saucer.au");
-      thrustersSound = loadSound("thrusters.au");
-      warpSound      = loadSound("warp.au");
-   }
-
-
-   // Load sound clip by playing and immediately stopping it.
-   public AudioClip loadSound(String soundFile)
-   {
-      AudioClip audioClip = null;
-
-      try
+      if (loopTask == null)
       {
-         URL url = Bubbleroids.class .getResource(soundFile);
-
-         if (url != null)
-         {
-            audioClip = Applet.newAudioClip(url);
-         }
-
-         if (audioClip == null)
-         {
-            showStatus("Cannot load sound file " + soundFile);
-         }
-         else
-         {
-            audioClip.play();
-            audioClip.stop();
-         }
+         running  = true;
+         loopTask = loopExecutor.submit(this);
       }
-      catch (Exception e) {
-         showStatus("Cannot load sound file " + soundFile + ": " + e.toString());
-      }
-
-      return(audioClip);
    }
 
 
-   public void initShip()
+   public void stop()
    {
-      ship.active     = true;
-      ship.angle      = 0.0;
-      ship.deltaAngle = 0.0;
-      ship.currentX   = 0.0;
-      ship.currentY   = 0.0;
-      ship.deltaX     = 0.0;
-      ship.deltaY     = 0.0;
-      ship.render();
-      if (loaded)
+      // Interrupt the game loop, which stops it at its next wait, and silence the looping
+      // sounds until it runs again. The sounds are left loading.
+
+      running = false;
+      if (loopTask != null)
       {
-         thrustersSound.stop();
+         loopTask.cancel(true);
+         loopTask = null;
       }
-      thrustersPlaying = false;
-
-      hyperCounter = 0;
+      loopSounds();
    }
 
 
-   public void updateShip()
+   public void destroy()
    {
-      double dx, dy, limit;
-
-      if (!playing)
+      stop();
+      if (loopExecutor != null)
       {
-         return;
+         loadExecutor.shutdownNow();
+         loopExecutor.shutdownNow();
+         loadExecutor = null;
+         loopExecutor = null;
+         loadTask     = null;
       }
-
-      // Rotate the ship if left or right cursor key is down.
-
-      if (left)
+      if (view.raster != null)
       {
-         ship.angle += Math.PI / 16.0;
-         if (ship.angle > 2 * Math.PI)
-         {
-            ship.angle -= 2 * Math.PI;
-         }
+         view.raster.shutdown();
       }
-      if (right)
-      {
-         ship.angle -= Math.PI / 16.0;
-         if (ship.angle < 0)
-         {
-            ship.angle += 2 * Math.PI;
-         }
-      }
-
-      // Fire thrusters if up or down cursor key is down. Don't let ship go past
-      // the speed limit.
-
-      dx    = -Math.sin(ship.angle);
-      dy    = Math.cos(ship.angle);
-      limit = 0.8 * MIN_BUBBLE_SIZE;
-      if (up)
-      {
-         if ((ship.deltaX + dx > -limit) && (ship.deltaX + dx < limit))
-         {
-            ship.deltaX += dx;
-         }
-         if ((ship.deltaY + dy > -limit) && (ship.deltaY + dy < limit))
-         {
-            ship.deltaY += dy;
-         }
-      }
-      if (down)
+      if (loaded)
       {
-         if ((ship.deltaX - dx > -limit) && (ship.deltaX - dx < limit))
-         {
-            ship.deltaX -= dx;
-         }
-         if ((ship.deltaY - dy > -limit) && (ship.deltaY - dy < limit))
-         {
-            ship.deltaY -= dy;
-         }
+         audio.close();
       }
+   }
 
-      // Move the ship. If it is currently in hyperspace, advance the countdown.
 
-      if (ship.active)
+   // Make low priority daemon threads with the given name for the executors.
+   static ThreadFactory threads(final String name)
+   {
+      return(new ThreadFactory()
       {
-         ship.advance();
-         ship.render();
-         if (hyperCounter > 0)
+         public Thread newThread(Runnable r)
          {
-            hyperCounter--;
-         }
-      }
-
-      // Ship is exploding, advance the countdown or create a new ship if it is
-      // done exploding. The new ship is added as though it were in hyperspace.
-      // (This gives the player time to move the ship if it is in imminent danger.)
-      // If that was the last ship, end the game.
+            Thread t = new Thread(r, name);
 
-      else
-      if (--shipCounter <= 0)
-      {
-         if (shipsLeft > 0)
-         {
-            initShip();
-            hyperCounter = HYPER_COUNT;
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return(t);
          }
-         else
-         {
-            endGame();
-            startQuit.setLabel("Start");
-         }
-      }
+      });
    }
 
 
-   public void stopShip()
+   public synchronized void setPaused(boolean paused)
    {
-      ship.active = false;
-      shipCounter = SCRAP_COUNT;
-      if (shipsLeft > 0)
-      {
-         shipsLeft--;
-      }
-      if (loaded)
-      {
-         thrustersSound.stop();
-      }
-      thrustersPlaying = false;
+      this.paused = paused;
+      notifyAll();
    }
 
 
-   public void initPhotons()
+   synchronized void waitWhilePaused() throws InterruptedException
    {
-      int i;
-
-      for (i = 0; i < MAX_SHOTS; i++)
+      while (paused)
       {
-         photons[i].active = false;
-         photonCounter[i]  = 0;
+         wait();
       }
-      photonIndex = 0;
    }
 
 
-   public void updatePhotons()
+   public void run()
    {
-      int i;
-
-      // Move any active photons. Stop it when its counter has expired.
-
-      for (i = 0; i < MAX_SHOTS; i++)
+      long now, lastTime, lag, tickTime, frameTime, nextFrame, deadline, tickStart;
+      int  ticks;
+
+      // This is the main loop. The game advances in fixed ticks however long the frames take,
+      // and each frame is drawn the fraction of a tick that has built up past the last one. If
+      // the frames fall so far behind that more than MAX_FRAME_SKIP ticks are due, the rest are
+      // dropped so the game slows down rather than stop drawing altogether. The loop wakes up
+      // for whichever is due first, the next tick or the next frame, and the pacer records how
+      // late each tick ran, how many ran over their time and how many were dropped. It sleeps
+      // while the game is paused, and stops when it is interrupted.
+
+      tickTime  = config.delay * 1000000L;
+      frameTime = 1000000000L / frameRate();
+      lag       = 0;
+      lastTime  = System.nanoTime();
+      nextFrame = lastTime;
+      try
       {
-         if (photons[i].active)
+         while (true)
          {
-            photons[i].advance();
-            photons[i].render();
-            if (--photonCounter[i] < 0)
+            // Carry on after a pause as if no time had passed.
+
+            if (paused)
             {
-               photons[i].active = false;
+               waitWhilePaused();
+               lastTime = System.nanoTime();
             }
-         }
-      }
-   }
-
-
-   public void initUfo()
-   {
-      double temp;
-
-      // Randomly set flying saucer at left or right edge of the screen.
-
-      ufo.active   = true;
-      ufo.currentX = -BubbleroidsSprite.width / 2;
-      ufo.currentY = Math.random() * BubbleroidsSprite.height;
-      ufo.deltaX   = MIN_BUBBLE_SPEED + Math.random() * (MAX_BUBBLE_SPEED - MIN_BUBBLE_SPEED);
-      if (Math.random() < 0.5)
-      {
-         ufo.deltaX   = -ufo.deltaX;
-         ufo.currentX = BubbleroidsSprite.width / 2;
-      }
-      ufo.deltaY = MIN_BUBBLE_SPEED + Math.random() * (MAX_BUBBLE_SPEED - MIN_BUBBLE_SPEED);
-      if (Math.random() < 0.5)
-      {
-         ufo.deltaY = -ufo.deltaY;
-      }
-      ufo.render();
-      saucerPlaying = true;
-      if (sound)
-      {
-         saucerSound.loop();
-      }
-
-      // Set counter for this pass.
-
-      ufoCounter = (int)Math.floor(BubbleroidsSprite.width / Math.abs(ufo.deltaX));
-   }
-
-
-   public void updateUfo()
-   {
-      int i, d;
-
-      // Move the flying saucer and check for collision with a photon. Stop it when its
-      // counter has expired.
-
-      if (ufo.active)
-      {
-         ufo.advance();
-         ufo.render();
-         if (--ufoCounter <= 0)
-         {
-            if (--ufoPassesLeft > 0)
+            now       = System.nanoTime();
+            lag      += now - lastTime;
+            lastTime  = now;
+            for (ticks = 0; (lag >= tickTime) && (ticks < MAX_FRAME_SKIP); ticks++)
             {
-               initUfo();
+               pacer.record(lag - tickTime);
+               tickStart = System.nanoTime();
+               step();
+               if (System.nanoTime() - tickStart > tickTime)
+               {
+                  pacer.overruns++;
+               }
+               lag -= tickTime;
             }
-            else
+            if (lag >= tickTime)
             {
-               stopUfo();
+               pacer.dropped += lag / tickTime;
+               lag           %= tickTime;
             }
-         }
-         else
-         {
-            for (i = 0; i < MAX_SHOTS; i++)
+
+            // Draw a frame if one is due, starting the frames afresh if this one ran late.
+
+            if (now - nextFrame >= 0)
             {
-               if (photons[i].active && ufo.isColliding(photons[i]))
+               drawFrame((double)lag / tickTime);
+               nextFrame += frameTime;
+               if (System.nanoTime() - nextFrame > 0)
                {
-                  if (sound)
-                  {
-                     crashSound.play();
-                  }
-                  explode(ufo);
-                  stopUfo();
-                  score += UFO_POINTS;
+                  nextFrame = System.nanoTime();
                }
             }
 
-            // On occassion, fire a missile at the ship if the saucer is not
-            // too close to it.
+            // Wait for the next tick or frame.
 
-            d = (int)Math.max(Math.abs(ufo.currentX - ship.currentX), Math.abs(ufo.currentY - ship.currentY));
-            if (ship.active && (hyperCounter <= 0) && ufo.active && !missile.active &&
-                (d > 4 * MAX_BUBBLE_SIZE) && (Math.random() < .03))
+            deadline = nextFrame;
+            if (lastTime + tickTime - lag - deadline < 0)
             {
-               initMissile();
+               deadline = lastTime + tickTime - lag;
             }
+            pacer.waitUntil(deadline);
          }
       }
-   }
-
-
-   public void stopUfo()
-   {
-      ufo.active    = false;
-      ufoCounter    = 0;
-      ufoPassesLeft = 0;
-      if (loaded)
-      {
-         saucerSound.stop();
+      catch (InterruptedException e) {
+         // Stopped.
       }
-      saucerPlaying = false;
-   }
+      catch (RuntimeException e) {
+         // The executor would keep this to itself, so report it here.
 
-
-   public void initMissile()
-   {
-      missile.active     = true;
-      missile.angle      = 0.0;
-      missile.deltaAngle = 0.0;
-      missile.currentX   = ufo.currentX;
-      missile.currentY   = ufo.currentY;
-      missile.deltaX     = 0.0;
-      missile.deltaY     = 0.0;
-      missile.render();
-      missileCounter = 3 * Math.max(BubbleroidsSprite.width, BubbleroidsSprite.height) / MIN_BUBBLE_SIZE;
-      if (sound)
-      {
-         missileSound.loop();
+         e.printStackTrace();
+         showStatus("Game loop stopped: " + e.toString());
       }
-      missilePlaying = true;
    }
 
 
-   public void updateMissile()
+   // Frames per second to draw, the display's refresh rate unless one is set.
+   public int frameRate()
    {
-      int i;
+      GraphicsConfiguration gc = getGraphicsConfiguration();
+      int                   rate;
 
-      // Move the guided missile and check for collision with ship or photon. Stop it when its
-      // counter has expired.
-
-      if (missile.active)
+      if (config.fps > 0)
       {
-         if (--missileCounter <= 0)
-         {
-            stopMissile();
-         }
-         else
-         {
-            guideMissile();
-            missile.advance();
-            missile.render();
-            for (i = 0; i < MAX_SHOTS; i++)
-            {
-               if (photons[i].active && missile.isColliding(photons[i]))
-               {
-                  if (sound)
-                  {
-                     crashSound.play();
-                  }
-                  explode(missile);
-                  stopMissile();
-                  score += MISSLE_POINTS;
-               }
-            }
-            if (missile.active && ship.active && (hyperCounter <= 0) && ship.isColliding(missile))
-            {
-               if (sound)
-               {
-                  crashSound.play();
-               }
-               explode(ship);
-               stopShip();
-               stopUfo();
-               stopMissile();
-            }
-         }
+         return(config.fps);
+      }
+      rate = DisplayMode.REFRESH_RATE_UNKNOWN;
+      if (gc != null)
+      {
+         rate = gc.getDevice().getDisplayMode().getRefreshRate();
       }
+      return((rate > 0) ? rate : 60);
    }
 
 
-   public void guideMissile()
+   public void step()
    {
-      double dx, dy, angle;
+      boolean wasPlaying;
+      int     input;
 
-      if (!ship.active || (hyperCounter > 0))
-      {
-         return;
-      }
+      // Carry out the commands given since the last tick, then take the keys.
 
-      // Find the angle needed to hit the ship.
+      command(takeCommands());
+      wasPlaying = game.playing;
+      input      = takeInput();
 
-      dx = ship.currentX - missile.currentX;
-      dy = ship.currentY - missile.currentY;
-      if ((dx == 0) && (dy == 0))
-      {
-         angle = 0;
-      }
-      if (dx == 0)
-      {
-         if (dy < 0)
-         {
-            angle = -Math.PI / 2;
-         }
-         else
-         {
-            angle = Math.PI / 2;
-         }
-      }
-      else
+      // While R is held, wind the game back a tick at a time instead. The input recorded so far
+      // no longer leads to this state, so the recording is dropped. Only the looping sounds
+      // carry on.
+
+      if (rewinding && (rewind != null) && (rewind.newest() > rewind.oldest()))
       {
-         angle = Math.atan(Math.abs(dy / dx));
-         if (dy > 0)
-         {
-            angle = -angle;
-         }
-         if (dx < 0)
+         rewind.rewind(rewind.newest() - 1);
+         game.recording = null;
+         game.sounds    = 0;
+         if (game.playing != wasPlaying)
          {
-            angle = Math.PI - angle;
+            startQuit.setState(game.playing);
+            startQuit.setLabel(game.playing ? "Quit" : "Start");
          }
+         playSounds();
+         return;
       }
 
-      // Adjust angle for screen coordinates.
-
-      missile.angle = angle - Math.PI / 2;
-
-      // Change the missile's angle so that it points toward the ship.
-
-      missile.deltaX = MIN_BUBBLE_SIZE / 3 * -Math.sin(missile.angle);
-      missile.deltaY = MIN_BUBBLE_SIZE / 3 * Math.cos(missile.angle);
-   }
-
+      // Feed the keys to the game, keep the tick for rewinding, then play the sounds it asks for.
 
-   public void stopMissile()
-   {
-      missile.active = false;
-      missileCounter = 0;
-      if (loaded)
+      game.step(input);
+      if (rewind != null)
+      {
+         rewind.record();
+      }
+      if (wasPlaying && !game.playing)
       {
-         missileSound.stop();
+         startQuit.setLabel("Start");
+         saveRecording();
       }
-      missilePlaying = false;
+      playSounds();
    }
 
 
-   public void initBubbleroids()
+   // Save the input of the game that just ended, if it was recorded.
+   public void saveRecording()
    {
-      int    i, j;
-      double theta, r, dx, dy;
-      int    x, y;
-
-      // Create shapes, positions and movements for each bubbleroid.
-
-      bubbleroidsLeft = 0;
-      for (i = 0; i < MAX_BUBBLES; i++)
+      if (game.recording != null)
       {
-         // Create a circular shape for the bubbleroid.
-
-         bubbleroids[i].shape = new Polygon();
-         r = MIN_BUBBLE_SIZE + (int)(Math.random() * (MAX_BUBBLE_SIZE - MIN_BUBBLE_SIZE));
-         bubbleroids[i].radius = r;
-         for (j = 0; j < NUM_BUBBLE_SIDES; j++)
-         {
-            theta = 2 * Math.PI / NUM_BUBBLE_SIDES * j;
-            x     = (int)-Math.round(r * Math.sin(theta));
-            y     = (int)Math.round(r * Math.cos(theta));
-            bubbleroids[i].shape.addPoint(x, y);
-         }
-         bubbleroids[i].active     = true;
-         bubbleroids[i].angle      = 0.0;
-         bubbleroids[i].deltaAngle = 0.0;
-
-         // Place the bubbleroid at one edge of the screen.
-
-         if (Math.random() < 0.5)
-         {
-            bubbleroids[i].currentX = -BubbleroidsSprite.width / 2;
-            if (Math.random() < 0.5)
-            {
-               bubbleroids[i].currentX = BubbleroidsSprite.width / 2;
-            }
-            bubbleroids[i].currentY = Math.random() * BubbleroidsSprite.height;
-         }
-         else
+         game.recording.finish(game);
+         try
          {
-            bubbleroids[i].currentX = Math.random() * BubbleroidsSprite.width;
-            bubbleroids[i].currentY = -BubbleroidsSprite.height / 2;
-            if (Math.random() < 0.5)
-            {
-               bubbleroids[i].currentY = BubbleroidsSprite.height / 2;
-            }
+            game.recording.save(config.record);
          }
-
-
-         // Do not allow bubbleroids to overlap.
-
-         for (j = 0; j < i; j++)
-         {
-            if (bubbleroids[j].active)
-            {
-               dx = bubbleroids[i].currentX - bubbleroids[j].currentX;
-               dy = bubbleroids[i].currentY - bubbleroids[j].currentY;
-               if (Math.sqrt((dx * dx) + (dy * dy)) <= (bubbleroids[i].radius + bubbleroids[j].radius))
-               {
-                  bubbleroids[i].active = false;
-                  break;
-               }
-            }
+         catch (IOException e) {
+            showStatus("Cannot save recording " + config.record + ": " + e.toString());
          }
-         if (!bubbleroids[i].active) { continue; }
-
-         // Choose bubble color.
+         game.recording = null;
+      }
+   }
 
-         bubbleroids[i].color = new Color((int)(Math.random() * 255), (int)(Math.random() * 255), 255);
 
-         // Set a random motion for the bubbleroid.
+   synchronized int takeInput()
+   {
+      int input = keys | actions;
 
-         bubbleroids[i].deltaX = Math.random() * bubbleroidsSpeed;
-         if (Math.random() < 0.5)
-         {
-            bubbleroids[i].deltaX = -bubbleroids[i].deltaX;
-         }
-         bubbleroids[i].deltaY = Math.random() * bubbleroidsSpeed;
-         if (Math.random() < 0.5)
-         {
-            bubbleroids[i].deltaY = -bubbleroids[i].deltaY;
-         }
+      actions = 0;
+      return(input);
+   }
 
-         bubbleroids[i].render();
-         bubbleroidIsSmall[i] = false;
 
-         bubbleroidsLeft++;
-      }
+   synchronized int takeCommands()
+   {
+      int c = commands;
 
-      bubbleroidsCounter = STORM_PAUSE;
-      if (bubbleroidsSpeed < MAX_BUBBLE_SPEED)
-      {
-         bubbleroidsSpeed++;
-      }
+      commands = 0;
+      return(c);
    }
 
 
-   public void initSmallBubbleroids(int n)
+   // Give the game loop a command to carry out before its next tick.
+   public synchronized void post(int command)
    {
-      int    count;
-      int    i, j;
-      double tempX, tempY;
-      double theta, r;
-      int    x, y;
-
-      // Create one or two smaller bubbleroids from a larger one using inactive bubbleroids. The new
-      // bubbleroids will be placed in the same position as the old one but will have a new, smaller
-      // shape and new, randomly generated movements.
-
-      count = 0;
-      i     = 0;
-      tempX = bubbleroids[n].currentX;
-      tempY = bubbleroids[n].currentY;
-      do
-      {
-         if (!bubbleroids[i].active)
-         {
-            bubbleroids[i].shape = new Polygon();
-            r = (MIN_BUBBLE_SIZE + (int)(Math.random() * (MAX_BUBBLE_SIZE - MIN_BUBBLE_SIZE))) / 2;
-            bubbleroids[i].radius = r;
-            for (j = 0; j < NUM_BUBBLE_SIDES; j++)
-            {
-               theta = 2 * Math.PI / NUM_BUBBLE_SIDES * j;
-               x     = (int)-Math.round(r * Math.sin(theta));
-               y     = (int)Math.round(r * Math.cos(theta));
-               bubbleroids[i].shape.addPoint(x, y);
-            }
-            bubbleroids[i].active     = true;
-            bubbleroids[i].angle      = 0.0;
-            bubbleroids[i].deltaAngle = 0.0;
-            bubbleroids[i].currentX   = tempX;
-            bubbleroids[i].currentY   = tempY;
-            bubbleroids[i].deltaX     = Math.random() * 2 * bubbleroidsSpeed - bubbleroidsSpeed;
-            bubbleroids[i].deltaY     = Math.random() * 2 * bubbleroidsSpeed - bubbleroidsSpeed;
-            bubbleroids[i].color      = bubbleroids[n].color;
-            bubbleroidIsSmall[i]      = true;
-            count++;
-            bubbleroidsLeft++;
-         }
-         i++;
-      } while (i < MAX_BUBBLES && count < 2);
+      commands |= command;
    }
 
 
-   public void updateBubbleroids()
+   void command(int c)
    {
-      int    i, j;
-      double dx, dy, d1, d2;
-
-      // Bounce colliding bubbleroids which are also moving toward each other.
-
-      for (i = 0; i < MAX_BUBBLES; i++)
-      {
-         if (bubbleroids[i].active)
-         {
-            for (j = i + 1; j < MAX_BUBBLES; j++)
-            {
-               if (bubbleroids[j].active)
-               {
-                  d2 = bubbleroids[i].radius + bubbleroids[j].radius;
-                  dx = (bubbleroids[i].currentX + bubbleroids[i].deltaX) -
-                       (bubbleroids[j].currentX + bubbleroids[j].deltaX);
-                  if (Math.abs(dx) > d2) { continue; }
-                  dy = (bubbleroids[i].currentY - bubbleroids[i].deltaY) -
-                       (bubbleroids[j].currentY - bubbleroids[j].deltaY);
-                  if (Math.abs(dy) > d2) { continue; }
-                  d1 = Math.sqrt((dx * dx) + (dy * dy));
-                  if (d1 <= d2)
-                  {
-                     dx = bubbleroids[i].currentX - bubbleroids[j].currentX;
-                     dy = bubbleroids[i].currentY - bubbleroids[j].currentY;
-                     d2 = Math.sqrt((dx * dx) + (dy * dy));
-                     if (d1 < d2)
-                     {
-                        dx = bubbleroids[i].deltaX;
-                        dy = bubbleroids[i].deltaY;
-                        bubbleroids[i].deltaX = bubbleroids[j].deltaX;
-                        bubbleroids[i].deltaY = bubbleroids[j].deltaY;
-                        bubbleroids[j].deltaX = dx;
-                        bubbleroids[j].deltaY = dy;
-                     }
-                  }
-               }
-            }
-         }
-      }
+      // Toggle the detail, start a game or quit the one being played, on the game loop's
+      // thread.
 
-      // Bounce bubbleroids off of walls.
-
-      for (i = 0; i < MAX_BUBBLES; i++)
+      if ((c & DETAIL) != 0)
       {
-         if (bubbleroids[i].active)
-         {
-            dx = bubbleroids[i].currentX + bubbleroids[i].deltaX;
-            if (((dx + bubbleroids[i].radius) >= (double)(BubbleroidsSprite.width2)) && (bubbleroids[i].deltaX > 0.0))
-            {
-               bubbleroids[i].deltaX = -bubbleroids[i].deltaX;
-            }
-            else if (((dx - bubbleroids[i].radius) <= (double)(-BubbleroidsSprite.width2)) && (bubbleroids[i].deltaX < 0.0))
-            {
-               bubbleroids[i].deltaX = -bubbleroids[i].deltaX;
-            }
-            dy = bubbleroids[i].currentY - bubbleroids[i].deltaY;
-            if (((dy + bubbleroids[i].radius) >= (double)(BubbleroidsSprite.height2)) && (bubbleroids[i].deltaY < 0.0))
-            {
-               bubbleroids[i].deltaY = -bubbleroids[i].deltaY;
-            }
-            else if (((dy - bubbleroids[i].radius) <= (double)(-BubbleroidsSprite.height2)) && (bubbleroids[i].deltaY > 0.0))
-            {
-               bubbleroids[i].deltaY = -bubbleroids[i].deltaY;
-            }
-         }
+         view.detail = !view.detail;
+         invalidateFrame();
       }
-
-      // Move any active bubbleroids and check for other collisions.
-
-      for (i = 0; i < MAX_BUBBLES; i++)
+      if (((c & START) != 0) && !game.playing)
       {
-         if (bubbleroids[i].active)
-         {
-            bubbleroids[i].advance();
-            bubbleroids[i].render();
-
-            // If hit by photon, kill bubbleroid and advance score. If bubbleroid is large,
-            // make some smaller ones to replace it.
-
-            for (j = 0; j < MAX_SHOTS; j++)
-            {
-               if (photons[j].active && bubbleroids[i].active && bubbleroids[i].isColliding(photons[j]))
-               {
-                  bubbleroidsLeft--;
-                  bubbleroids[i].active = false;
-                  photons[j].active     = false;
-                  if (sound)
-                  {
-                     explosionSound.play();
-                  }
-                  explode(bubbleroids[i]);
-                  if (!bubbleroidIsSmall[i])
-                  {
-                     score += BIG_POINTS;
-                     initSmallBubbleroids(i);
-                  }
-                  else
-                  {
-                     score += SMALL_POINTS;
-                  }
-               }
-            }
-
-            // If the ship is not in hyperspace, see if it is hit.
-
-            if (ship.active && (hyperCounter <= 0) && bubbleroids[i].active && bubbleroids[i].isColliding(ship))
-            {
-               if (sound)
-               {
-                  crashSound.play();
-               }
-               explode(ship);
-               stopShip();
-               stopUfo();
-               stopMissile();
-            }
-         }
+         initGame();
+         startQuit.setState(true);
+         startQuit.setLabel("Quit");
       }
-   }
-
-
-   public void initExplosions()
-   {
-      int i;
-
-      for (i = 0; i < MAX_SCRAP; i++)
+      else if (((c & QUIT) != 0) && game.playing)
       {
-         explosions[i].shape  = new Polygon();
-         explosions[i].active = false;
-         explosionCounter[i]  = 0;
+         game.endGame();
+         saveRecording();
+         initGame();
+         game.endGame();
+         startQuit.setState(false);
+         startQuit.setLabel("Start");
       }
-      explosionIndex = 0;
    }
 
 
-   public void explode(BubbleroidsSprite s)
+   public void playSounds()
    {
-      int c, i, j;
+      int s = game.sounds;
 
-      // Create sprites for explosion animation. The each individual line segment of the given sprite
-      // is used to create a new sprite that will move outward  from the sprite's original position
-      // with a random rotation.
-
-      s.render();
-      c = 2;
-      if (detail || (s.sprite.npoints < 6))
+      if (!loaded)
       {
-         c = 1;
+         return;
       }
-      for (i = 0; i < s.sprite.npoints; i += c)
+      audio.tick();
+      if (sound)
       {
-         explosionIndex++;
-         if (explosionIndex >= MAX_SCRAP)
+         if ((s & BubbleroidsGame.CRASH_SOUND) != 0)
+         {
+            audio.play(crashSound);
+         }
+         if ((s & BubbleroidsGame.EXPLOSION_SOUND) != 0)
+         {
+            audio.play(explosionSound);
+         }
+         if ((s & BubbleroidsGame.FIRE_SOUND) != 0)
          {
-            explosionIndex = 0;
+            audio.play(fireSound);
          }
-         explosions[explosionIndex].active = true;
-         explosions[explosionIndex].shape  = new Polygon();
-         explosions[explosionIndex].shape.addPoint(s.shape.xpoints[i], s.shape.ypoints[i]);
-         j = i + 1;
-         if (j >= s.sprite.npoints)
+         if ((s & BubbleroidsGame.WARP_SOUND) != 0)
          {
-            j -= s.sprite.npoints;
+            audio.play(warpSound);
          }
-         explosions[explosionIndex].shape.addPoint(s.shape.xpoints[j], s.shape.ypoints[j]);
-         explosions[explosionIndex].angle      = s.angle;
-         explosions[explosionIndex].deltaAngle = (Math.random() * 2 * Math.PI - Math.PI) / 15;
-         explosions[explosionIndex].currentX   = s.currentX;
-         explosions[explosionIndex].currentY   = s.currentY;
-         explosions[explosionIndex].deltaX     = -s.shape.xpoints[i] / 5;
-         explosions[explosionIndex].deltaY     = -s.shape.ypoints[i] / 5;
-         explosions[explosionIndex].color      = s.color;
-         explosionCounter[explosionIndex]      = SCRAP_COUNT;
       }
+      loopSounds();
    }
 
 
-   public void updateExplosions()
+   // Start or stop the looping sounds to match the game, pause and mute state. The mixer takes
+   // the change up on its own thread.
+   public synchronized void loopSounds()
    {
-      int i;
+      boolean on = sound && !paused && running;
+
+      if (!loaded)
+      {
+         return;
+      }
+      audio.loop(thrustersSound, on && game.thrustersPlaying);
+      audio.loop(saucerSound, on && game.saucerPlaying);
+      audio.loop(missileSound, on && game.missilePlaying);
+   }
 
-      // Move any active explosion debris. Stop explosion when its counter has expired.
 
-      for (i = 0; i < MAX_SCRAP; i++)
+   // Decode the sounds and start mixing them, with a few voices for the sounds that can overlap
+   // and one for the others.
+   public void loadSounds()
+   {
+      audio          = new BubbleroidsAudio(config.latency);
+      crashSound     = audio.load("crash.au", 2);
+      explosionSound = audio.load("explosion.au", 3);
+      fireSound      = audio.load("fire.au", 3);
+      missileSound   = audio.load("missile.au", 1);
+      saucerSound    = audio.load("saucer.au", 1);
+      thrustersSound = audio.load("thrusters.au", 1);
+      warpSound      = audio.load("warp.au", 1);
+      if (audio.error != null)
       {
-         if (explosions[i].active)
-         {
-            explosions[i].advance();
-            explosions[i].render();
-            if (--explosionCounter[i] < 0)
-            {
-               explosions[i].active = false;
-            }
-         }
+         showStatus(audio.error);
       }
    }
 
 
-   public boolean keyDown(Event e, int key)
+   public synchronized boolean keyDown(Event e, int key)
    {
       // Check if any cursor keys have been pressed and set flags.
 
       if (key == Event.LEFT)
       {
-         left = true;
+         keys |= BubbleroidsGame.LEFT;
       }
       if (key == Event.RIGHT)
       {
-         right = true;
+         keys |= BubbleroidsGame.RIGHT;
       }
       if (key == Event.UP)
       {
-         up = true;
+         keys |= BubbleroidsGame.UP;
       }
       if (key == Event.DOWN)
       {
-         down = true;
+         keys |= BubbleroidsGame.DOWN;
       }
 
-      if ((up || down) && ship.active && !thrustersPlaying && !paused)
+      // Spacebar: fire a photon.
+
+      if ((key == 32) && !paused)
       {
-         if (sound)
-         {
-            thrustersSound.loop();
-         }
-         thrustersPlaying = true;
+         actions |= BubbleroidsGame.FIRE;
       }
 
-      // Spacebar: fire a photon and start its counter.
+      // 'H' key: warp ship into hyperspace.
 
-      if ((key == 32) && ship.active && !paused)
+      if ((key == 104) && !paused)
       {
-         if (sound)
-         {
-            fireSound.play();
-         }
-         photonIndex++;
-         if (photonIndex >= MAX_SHOTS)
-         {
-            photonIndex = 0;
-         }
-         photons[photonIndex].active   = true;
-         photons[photonIndex].currentX = ship.currentX;
-         photons[photonIndex].currentY = ship.currentY;
-         photons[photonIndex].deltaX   = MIN_BUBBLE_SIZE * -Math.sin(ship.angle);
-         photons[photonIndex].deltaY   = MIN_BUBBLE_SIZE * Math.cos(ship.angle);
-         photonCounter[photonIndex]    = Math.min(BubbleroidsSprite.width, BubbleroidsSprite.height) / MIN_BUBBLE_SIZE;
+         actions |= BubbleroidsGame.HYPERSPACE;
       }
 
-      // 'H' key: warp ship into hyperspace by moving to a random location and starting counter.
+      // 'D' key: toggle graphics detail on or off.
 
-      if ((key == 104) && ship.active && (hyperCounter <= 0) && !paused)
+      if (key == 100)
       {
-         ship.currentX = (Math.random() * BubbleroidsSprite.width) - BubbleroidsSprite.width2;
-         ship.currentY = (Math.random() * BubbleroidsSprite.height) - BubbleroidsSprite.height2;
-         hyperCounter  = HYPER_COUNT;
-         if (sound)
-         {
-            warpSound.play();
-         }
+         commands |= DETAIL;
       }
 
-      // 'D' key: toggle graphics detail on or off.
+      // 'T' key: toggle the tick timing display on or off.
 
-      if (key == 100)
+      if (key == 116)
       {
-         detail = !detail;
+         timing = !timing;
       }
 
       // 'U' key: launch the UFO.
 
-      if ((key == 117) && ship.active && !paused && !ufo.active)
+      if ((key == 117) && !paused)
+      {
+         actions |= BubbleroidsGame.LAUNCH_UFO;
+      }
+
+      // 'R' key: rewind while held.
+
+      if (key == 114)
       {
-         newUfoScore  += NEW_UFO_POINTS;
-         ufoPassesLeft = UFO_PASSES;
-         initUfo();
+         rewinding = true;
       }
 
       return(true);
    }
 
 
-   public boolean keyUp(Event e, int key)
+   public synchronized boolean keyUp(Event e, int key)
    {
       // Check if any cursor keys where released and set flags.
 
       if (key == Event.LEFT)
       {
-         left = false;
+         keys &= ~BubbleroidsGame.LEFT;
       }
       if (key == Event.RIGHT)
       {
-         right = false;
+         keys &= ~BubbleroidsGame.RIGHT;
       }
       if (key == Event.UP)
       {
-         up = false;
+         keys &= ~BubbleroidsGame.UP;
       }
       if (key == Event.DOWN)
       {
-         down = false;
+         keys &= ~BubbleroidsGame.DOWN;
       }
-
-      if (!up && !down && thrustersPlaying)
+      if (key == 114)
       {
-         thrustersSound.stop();
-         thrustersPlaying = false;
+         rewinding = false;
       }
 
-
       return(true);
    }
 
@@ -1452,58 +727,30 @@ public class Bubbleroids extends Applet implements Runnable {
    {
       // Start/Quit.
 
-      if (evt.target.equals(startQuit) && startQuit.getState() &&
-          loaded && !playing)
+      if (evt.target.equals(startQuit) && startQuit.getState() && loaded)
       {
-         initGame();
-         startQuit.setLabel("Quit");
+         post(START);
       }
-      else if (evt.target.equals(startQuit) && !startQuit.getState() &&
-               loaded && playing)
+      else if (evt.target.equals(startQuit) && !startQuit.getState() && loaded)
       {
-         initGame();
-         endGame();
-         startQuit.setLabel("Start");
+         // Wake the loop if the game is paused, so it can quit.
+
+         post(QUIT);
+         setPaused(false);
+         pauseCheck.setState(false);
 
          // Pause.
       }
       else if (evt.target.equals(pauseCheck))
       {
-         if (!loaded || !playing)
+         if (!loaded || !game.playing)
          {
             pauseCheck.setState(false);
          }
-         else if (pauseCheck.getState())
-         {
-            if (missilePlaying)
-            {
-               missileSound.stop();
-            }
-            if (saucerPlaying)
-            {
-               saucerSound.stop();
-            }
-            if (thrustersPlaying)
-            {
-               thrustersSound.stop();
-            }
-            paused = true;
-         }
-         else if (!pauseCheck.getState())
+         else
          {
-            if (sound && missilePlaying)
-            {
-               missileSound.loop();
-            }
-            if (sound && saucerPlaying)
-            {
-               saucerSound.loop();
-            }
-            if (sound && thrustersPlaying)
-            {
-               thrustersSound.loop();
-            }
-            paused = false;
+            setPaused(pauseCheck.getState());
+            loopSounds();
          }
 
          // Mute.
@@ -1516,30 +763,17 @@ public class Bubbleroids extends Applet implements Runnable {
          }
          else if (muteCheck.getState())
          {
-            crashSound.stop();
-            explosionSound.stop();
-            fireSound.stop();
-            missileSound.stop();
-            saucerSound.stop();
-            thrustersSound.stop();
-            warpSound.stop();
+            audio.stop(crashSound);
+            audio.stop(explosionSound);
+            audio.stop(fireSound);
+            audio.stop(warpSound);
             sound = false;
+            loopSounds();
          }
          else if (!muteCheck.getState())
          {
-            if (missilePlaying)
-            {
-               missileSound.loop();
-            }
-            if (saucerPlaying)
-            {
-               saucerSound.loop();
-            }
-            if (thrustersPlaying)
-            {
-               thrustersSound.loop();
-            }
             sound = true;
+            loopSounds();
          }
       }
       else{ return(super.action(evt, arg)); }
@@ -1555,142 +789,121 @@ public class Bubbleroids extends Applet implements Runnable {
 
    public void update(Graphics g)
    {
-      Dimension d = spaceDimension;
-      int       i;
-      int       c, cr, cg, cb;
-      int       x, y, r2;
-      String    s;
+      // The game loop draws space itself. Only draw it here when the loop is not drawing frames,
+      // as when the game is paused. Either way space may have been drawn over, so the next frame
+      // is drawn whole.
+
+      invalidateFrame();
+      if ((screen != null) && (paused || (loopTask == null)))
+      {
+         drawFrame(shownAlpha);
+      }
+   }
 
-      // Fill in background and stars.
 
-      spaceImageGraphics.setColor(Color.black);
-      spaceImageGraphics.fillRect(0, 0, d.width, d.height);
-      if (detail)
+   // Draw a frame the fraction alpha of a tick past the last one and put it on the screen,
+   // drawing it again for as long as the screen loses it on the way. With dirty rectangles,
+   // only the parts that changed since the last frame are drawn and put on the screen. With a
+   // raster, the frame is drawn on it in parallel and then put on the screen whole.
+   public void drawFrame(double alpha)
+   {
+      Graphics g;
+      Image    image;
+      boolean  whole, shown;
+
+      synchronized (screen)
       {
-         spaceImageGraphics.setColor(Color.white);
-         for (i = 0; i < numStars; i++)
+         shownAlpha = alpha;
+         if (resized != null)
          {
-            spaceImageGraphics.drawLine(stars[i].x, stars[i].y, stars[i].x, stars[i].y);
+            refit(resized);
          }
-      }
+         layoutHud();
 
-      // Draw photon bullets.
+         // Put the frame together on the raster and show it.
 
-      spaceImageGraphics.setColor(Color.white);
-      for (i = 0; i < MAX_SHOTS; i++)
-      {
-         if (photons[i].active)
+         if (view.raster != null)
          {
-            spaceImageGraphics.drawPolygon(photons[i].sprite);
+            image = view.drawRaster(alpha);
+            do
+            {
+               g = screen.begin();
+               g.drawImage(image, 0, 0, null);
+            } while (!screen.end(g));
+            return;
          }
-      }
 
-      // Draw the guided missile, counter is used to quickly fade color to black when near expiration.
+         // Mark where things are in this frame to find the parts of the screen that changed.
 
-      c = Math.min(missileCounter * 24, 255);
-      spaceImageGraphics.setColor(new Color(c, c, c));
-      if (missile.active)
-      {
-         spaceImageGraphics.drawPolygon(missile.sprite);
-         spaceImageGraphics.drawLine(missile.sprite.xpoints[missile.sprite.npoints - 1], missile.sprite.ypoints[missile.sprite.npoints - 1],
-                                     missile.sprite.xpoints[0], missile.sprite.ypoints[0]);
-      }
+         whole = (view.dirty == null) || !view.measure(alpha);
 
-      // Draw the bubbleroids.
+         // Draw the frame, whole or a dirty rectangle at a time. If the last frame is gone from
+         // the screen's buffer, or this one is lost on the way, it is drawn whole.
 
-      for (i = 0; i < MAX_BUBBLES; i++)
-      {
-         if (bubbleroids[i].active)
+         do
          {
-            spaceImageGraphics.setColor(bubbleroids[i].color);
-            x  = (int)Math.round(bubbleroids[i].currentX - bubbleroids[i].radius + BubbleroidsSprite.width2);
-            y  = (int)Math.round(bubbleroids[i].currentY - bubbleroids[i].radius + BubbleroidsSprite.height2);
-            r2 = (int)Math.round(bubbleroids[i].radius * 2.0);
-            if (detail)
+            g      = screen.begin();
+            whole |= screen.fresh;
+            if (whole)
             {
-               spaceImageGraphics.fillOval(x, y, r2, r2);
+               view.draw(g, alpha);
             }
             else
             {
-               spaceImageGraphics.drawOval(x, y, r2, r2);
+               view.drawDirty(g, alpha);
             }
-         }
+            shown = screen.end(g, whole ? null : view.dirty);
+            whole = true;
+         } while (!shown);
       }
+   }
 
-      // Draw the flying saucer.
 
-      if (ufo.active)
-      {
-         if (detail)
-         {
-            spaceImageGraphics.setColor(Color.black);
-            spaceImageGraphics.fillPolygon(ufo.sprite);
-         }
-         spaceImageGraphics.setColor(Color.white);
-         spaceImageGraphics.drawPolygon(ufo.sprite);
-         spaceImageGraphics.drawLine(ufo.sprite.xpoints[ufo.sprite.npoints - 1], ufo.sprite.ypoints[ufo.sprite.npoints - 1],
-                                     ufo.sprite.xpoints[0], ufo.sprite.ypoints[0]);
-      }
+   void refit(Dimension d)
+   {
+      // Fit frames to a new canvas size. Called with the screen locked, from drawFrame().
 
-      // Draw the ship, counter is used to fade color to white on hyperspace.
+      resized        = null;
+      spaceDimension = d;
+      view.fit(d.width, d.height);
+      screen.resize(d.width, d.height);
+   }
 
-      c = 255 - (255 / HYPER_COUNT) * hyperCounter;
-      if (ship.active)
-      {
-         if (detail && (hyperCounter == 0))
-         {
-            spaceImageGraphics.setColor(Color.black);
-            spaceImageGraphics.fillPolygon(ship.sprite);
-         }
-         spaceImageGraphics.setColor(new Color(c, c, c));
-         spaceImageGraphics.drawPolygon(ship.sprite);
-         spaceImageGraphics.drawLine(ship.sprite.xpoints[ship.sprite.npoints - 1], ship.sprite.ypoints[ship.sprite.npoints - 1],
-                                     ship.sprite.xpoints[0], ship.sprite.ypoints[0]);
-      }
 
-      // Draw any explosion debris, counters are used to fade color to black.
+   public void invalidateFrame()
+   {
+      // Have the next frame drawn whole.
 
-      for (i = 0; i < MAX_SCRAP; i++)
+      if ((view != null) && (view.dirty != null))
       {
-         if (explosions[i].active)
+         synchronized (screen)
          {
-            cr = (explosions[i].color.getRed() / SCRAP_COUNT) * explosionCounter [i];
-            cg = (explosions[i].color.getGreen() / SCRAP_COUNT) * explosionCounter [i];
-            cb = (explosions[i].color.getBlue() / SCRAP_COUNT) * explosionCounter [i];
-            spaceImageGraphics.setColor(new Color(cr, cg, cb));
-            spaceImageGraphics.drawPolygon(explosions[i].sprite);
+            view.dirty.invalidate();
          }
       }
+   }
 
-      // Display status and messages.
-
-      spaceImageGraphics.setFont(font);
-      spaceImageGraphics.setColor(Color.white);
 
-      spaceImageGraphics.drawString("Score: " + score, fontWidth, fontHeight);
-      spaceImageGraphics.drawString("Ships: " + shipsLeft, fontWidth, d.height - fontHeight);
-      s = "High: " + highScore;
-      spaceImageGraphics.drawString(s, d.width - (fontWidth + fm.stringWidth(s)), fontHeight);
+   void layoutHud()
+   {
+      // Bring the lines of text up to date for this frame.
 
-      if (!playing)
+      view.timing = timing;
+      view.layout(loaded ? "Game Over" : "Loading sounds...");
+      if (timing)
       {
-         s = "B U B B L E R O I D S";
-         spaceImageGraphics.drawString(s, (d.width - fm.stringWidth(s)) / 2, d.height / 2);
-         if (!loaded)
+         view.hud.text(BubbleroidsView.PACER_LINE, pacer.toString());
+         view.hud.text(BubbleroidsView.SCREEN_LINE, screen.toString());
+         view.hud.text(BubbleroidsView.BUBBLES_LINE, view.bubbles.toString());
+         if (view.dirty != null)
          {
-            s = "Loading sounds...";
-            spaceImageGraphics.drawString(s, (d.width - fm.stringWidth(s)) / 2, d.height / 4);
+            view.hud.text(BubbleroidsView.RENDER_LINE, view.dirty.toString());
          }
-         else
+         else if (view.raster != null)
          {
-            s = "Game Over";
-            spaceImageGraphics.drawString(s, (d.width - fm.stringWidth(s)) / 2, d.height / 4);
+            view.hud.text(BubbleroidsView.RENDER_LINE, view.raster.toString());
          }
       }
-
-      // Copy the off screen buffer to the screen.
-
-      spaceGraphics.drawImage(spaceImage, 0, 0, this);
    }
 
 
@@ -1698,15 +911,38 @@ public class Bubbleroids extends Applet implements Runnable {
    @SuppressWarnings("deprecation")
    public static void main(String[] args)
    {
+      // Draw in device pixels, scaling space to fit the window ourselves, unless told otherwise.
+      if (System.getProperty("sun.java2d.uiScale") == null)
+      {
+         System.setProperty("sun.java2d.uiScale", "1");
+      }
+
       // Create game.
       Bubbleroids game = new Bubbleroids();
 
-      // Create frame.
+      // Read settings.
+      try
+      {
+         game.config = BubbleroidsConfig.parse(args);
+      }
+      catch (IllegalArgumentException e) {
+         System.err.println(e.getMessage());
+         System.err.println("Settings: " + String.join("=n ", BubbleroidsConfig.NAMES) + "=n");
+         System.exit(1);
+      }
+
+      // Size the frame and text for the resolution of the display.
+      game.dpiScale = Math.max(1.0, Toolkit.getDefaultToolkit().getScreenResolution() / 96.0);
+      game.font     = game.font.deriveFont((float)(12 * game.dpiScale));
+      int width     = (int)Math.round(500 * game.dpiScale);
+      int height    = (int)Math.round(400 * game.dpiScale);
+
+      // Create frame. It can be resized, and space is scaled to fit it.
       JFrame frame = new JFrame();
 
       frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
       frame.setTitle("Bubbleroids");
-      frame.setBounds(0, 0, 500, 399);
+      frame.setBounds(0, 0, width, height - 1);
       frame.setLayout(new GridLayout(1, 1));
       frame.add(game);
       frame.setVisible(true);
@@ -1714,7 +950,7 @@ public class Bubbleroids extends Applet implements Runnable {
       // Run applet.
       game.init();
       game.start();
-      frame.resize(new Dimension(500, 400));
+      frame.resize(new Dimension(width, height));
 
       // Print instructions.
       System.out.println("   Keyboard Controls:");
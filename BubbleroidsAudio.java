@@ -0,0 +1,318 @@
+/************************************************************************************************
+*
+*  BubbleroidsAudio.java
+*
+************************************************************************************************/
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import javax.sound.sampled.*;
+
+/************************************************************************************************
+*  The BubbleroidsAudio class plays the game's sounds through javax.sound.sampled. Each sound is
+*  decoded to 16 bit PCM once when it is loaded, and has a fixed number of voices, the most times
+*  it plays at once: a sound started while all its voices are busy takes over the one started
+*  longest ago. A sound is started at most once a tick, so however many things explode together,
+*  one voice plays it. A looping sound has a voice of its own that goes round until stopped.
+*
+*  One mixer thread owns the voices. It adds up every voice playing into a block of samples and
+*  writes it to a single line, whose buffer is as many milliseconds long as asked for, so sound
+*  comes out at most that long after it is started, however many voices play. The other threads
+*  only post requests, a count of starts, whether to loop and a count of stops, which the mixer
+*  takes up between blocks. So starting, stopping, pausing and muting cost next to nothing on
+*  the game and event threads and cannot race with each other or with the mixing.
+*
+*  Where there is no sound device, sounds load and playing them does nothing, and the first
+*  problem is kept to report.
+************************************************************************************************/
+
+class BubbleroidsAudio implements Runnable {
+   // Format sounds are decoded to and played in.
+
+   static final AudioFormat FORMAT = new AudioFormat(8000.0f, 16, 1, true, false);
+
+   // A sound: its samples, where each voice is in them or -1 when it is free, when each voice
+   // was started, and where the looping voice is. These belong to the mixer thread. The tick it
+   // was last started belongs to the thread starting it. The rest are requests to the mixer.
+
+   static class Sound {
+      String  name;
+      short[] samples;
+      int[]   positions;
+      long[]  starts;
+      int     loopPosition = -1;
+      int     stopsDone;
+      long    started      = -1;
+
+      AtomicInteger    startsWanted = new AtomicInteger();
+      volatile boolean looping;
+      AtomicInteger    stopsWanted  = new AtomicInteger();
+   }
+
+   // Fields:
+
+   volatile Sound[] sounds = new Sound[0];   // Sounds loaded.
+   long             tick;                    // Ticks so far.
+   String           error;                   // First problem loading a sound or opening the
+                                             // line, or null.
+
+   SourceDataLine   line;                    // Line the mixed sound is written to, or null.
+   Thread           mixer;                   // Thread mixing it.
+   volatile boolean running;
+   int              blockFrames;             // Samples mixed at a time.
+   long             clock;                   // Voices started so far, to find the oldest.
+
+   // Constructors:
+
+   public BubbleroidsAudio(int milliseconds)
+   {
+      // Open the line with a buffer of about the given length and start mixing into it, half a
+      // buffer at a time, on a thread from the game's factory raised to the top priority so the
+      // line never runs dry.
+
+      blockFrames = Math.max(16, (int)(FORMAT.getSampleRate() * milliseconds / 2000));
+      try
+      {
+         line = AudioSystem.getSourceDataLine(FORMAT);
+         line.open(FORMAT, 2 * blockFrames * FORMAT.getFrameSize());
+         line.start();
+      }
+      catch (Exception e) {
+         error = "Cannot open sound line: " + e.toString();
+         line  = null;
+         return;
+      }
+      running = true;
+      mixer   = Bubbleroids.threads("Bubbleroids mixer").newThread(this);
+      mixer.setPriority(Thread.MAX_PRIORITY);
+      mixer.start();
+   }
+
+
+   // Methods:
+
+   public Sound load(String name, int voices)
+   {
+      Sound            s = new Sound();
+      Sound[]          loaded;
+      AudioInputStream in;
+      URL              url;
+      byte[]           bytes;
+      int              i;
+
+      // Decode a sound file next to the classes, to play on the given number of voices.
+
+      s.name      = name;
+      s.samples   = new short[0];
+      s.positions = new int[Math.max(1, voices)];
+      s.starts    = new long[s.positions.length];
+      Arrays.fill(s.positions, -1);
+      try
+      {
+         url = BubbleroidsAudio.class.getResource(name);
+         if (url == null)
+         {
+            throw new FileNotFoundException(name);
+         }
+         in = AudioSystem.getAudioInputStream(FORMAT, AudioSystem.getAudioInputStream(url));
+         try
+         {
+            bytes = in.readAllBytes();
+         }
+         finally
+         {
+            in.close();
+         }
+         s.samples = new short[bytes.length / 2];
+         for (i = 0; i < s.samples.length; i++)
+         {
+            s.samples[i] = (short)((bytes[2 * i] & 0xff) | (bytes[2 * i + 1] << 8));
+         }
+      }
+      catch (Exception e) {
+         if (error == null)
+         {
+            error = "Cannot load sound " + name + ": " + e.toString();
+         }
+      }
+
+      // Hand it to the mixer with the others.
+
+      loaded                = Arrays.copyOf(sounds, sounds.length + 1);
+      loaded[sounds.length] = s;
+      sounds                = loaded;
+      return(s);
+   }
+
+
+   public void tick()
+   {
+      // Start a new tick, in which each sound can be started again.
+
+      tick++;
+   }
+
+
+   public void play(Sound s)
+   {
+      // Start a sound from the beginning, unless it was started already this tick.
+
+      if (s.started != tick)
+      {
+         s.started = tick;
+         s.startsWanted.incrementAndGet();
+      }
+   }
+
+
+   public void loop(Sound s, boolean on)
+   {
+      // Start or stop a sound looping.
+
+      s.looping = on;
+   }
+
+
+   public void stop(Sound s)
+   {
+      // Silence the voices of a sound, other than its looping one.
+
+      s.stopsWanted.incrementAndGet();
+   }
+
+
+   public void close()
+   {
+      // Stop mixing and let go of the line, after which nothing more plays.
+
+      running = false;
+      if (mixer != null)
+      {
+         mixer.interrupt();
+         try
+         {
+            mixer.join();
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         mixer = null;
+      }
+      if (line != null)
+      {
+         line.close();
+         line = null;
+      }
+   }
+
+
+   public void run()
+   {
+      int[]   mix   = new int[blockFrames];
+      byte[]  block = new byte[2 * blockFrames];
+      Sound[] playing;
+      int     i, k, v;
+
+      // Mix block after block until closed. Writing a block waits for room in the line's
+      // buffer, which paces the mixing.
+
+      while (running)
+      {
+         Arrays.fill(mix, 0);
+         playing = sounds;
+         for (k = 0; k < playing.length; k++)
+         {
+            request(playing[k]);
+            mix(playing[k], mix);
+         }
+         for (i = 0; i < blockFrames; i++)
+         {
+            v                = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+            block[2 * i]     = (byte)v;
+            block[2 * i + 1] = (byte)(v >> 8);
+         }
+         line.write(block, 0, block.length);
+      }
+   }
+
+
+   void request(Sound s)
+   {
+      int stops, v, oldest;
+
+      // Take up what has been asked of a sound since the last block: stops first, then starts,
+      // each on a free voice or the one started longest ago, then the loop.
+
+      stops = s.stopsWanted.get();
+      if (stops != s.stopsDone)
+      {
+         s.stopsDone = stops;
+         Arrays.fill(s.positions, -1);
+      }
+      if ((s.startsWanted.getAndSet(0) > 0) && (s.samples.length > 0))
+      {
+         oldest = 0;
+         for (v = 0; v < s.positions.length; v++)
+         {
+            if (s.positions[v] < 0)
+            {
+               oldest = v;
+               break;
+            }
+            if (s.starts[v] < s.starts[oldest])
+            {
+               oldest = v;
+            }
+         }
+         s.positions[oldest] = 0;
+         s.starts[oldest]    = ++clock;
+      }
+      if (!s.looping)
+      {
+         s.loopPosition = -1;
+      }
+      else if ((s.loopPosition < 0) && (s.samples.length > 0))
+      {
+         s.loopPosition = 0;
+      }
+   }
+
+
+   static void mix(Sound s, int[] mix)
+   {
+      short[] samples = s.samples;
+      int     i, n, p, v;
+
+      // Add the voices of a sound into the block, freeing those that reach the end.
+
+      for (v = 0; v < s.positions.length; v++)
+      {
+         p = s.positions[v];
+         if (p < 0)
+         {
+            continue;
+         }
+         n = Math.min(mix.length, samples.length - p);
+         for (i = 0; i < n; i++)
+         {
+            mix[i] += samples[p + i];
+         }
+         s.positions[v] = (p + n < samples.length) ? p + n : -1;
+      }
+      p = s.loopPosition;
+      if (p >= 0)
+      {
+         for (i = 0; i < mix.length; i++)
+         {
+            mix[i] += samples[p];
+            if (++p == samples.length)
+            {
+               p = 0;
+            }
+         }
+         s.loopPosition = p;
+      }
+   }
+}
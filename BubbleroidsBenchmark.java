@@ -0,0 +1,653 @@
+/************************************************************************************************
+*
+*  BubbleroidsBenchmark.java
+*
+*  Usage:
+*
+*  java -Djava.awt.headless=true BubbleroidsBenchmark [milliseconds per benchmark]
+*
+*  Prints the time and memory allocated per operation for the sprite and game hot paths, for
+*  each entity count and shape. The ship has 3 vertices, the flying saucer 10 and a bubbleroid
+*  NUM_BUBBLE_SIDES. Bubbleroids are drawn as ovals and from BubbleroidsBubbleCache images, and a
+*  full HD sky star by star and from BubbleroidsStarfield layers. A 4K frame of a storm is drawn
+*  through Graphics, as ovals and from the cache, and on BubbleroidsRaster with more and more
+*  threads. Then prints how far from their due times fixed rate ticks run when paced with
+*  Thread.sleep() and with BubbleroidsPacer.
+*
+************************************************************************************************/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.lang.management.*;
+import java.nio.*;
+
+/************************************************************************************************
+*  The BubbleroidsBenchmark class is a small microbenchmark harness. Each benchmark is warmed up
+*  and then run repeatedly for a fixed time, and the results are reported per operation, where an
+*  operation is one call on one sprite or one call on the game.
+************************************************************************************************/
+
+class BubbleroidsBenchmark {
+   // Benchmark parameters.
+
+   static final int[] ENTITY_COUNTS = { 8, 64, 512, 4096, 131072 };
+   static final int[] VERTEX_COUNTS = { 3, 10, 12 };
+
+   static int warmupMillis  = 500;
+   static int measureMillis = 1000;
+
+   // Sink for results so the JIT cannot drop the work.
+
+   static long sink;
+
+   // Thread allocation counter, null if the JVM does not have one.
+
+   static com.sun.management.ThreadMXBean allocations;
+
+   // Game used for its shapes and for the game benchmarks.
+
+   static BubbleroidsGame game;
+
+
+   public static void main(String[] args)
+   {
+      int e, v;
+
+      if (args.length > 0)
+      {
+         measureMillis = Integer.parseInt(args[0]);
+         warmupMillis  = Math.max(1, measureMillis / 2);
+      }
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if ((bean instanceof com.sun.management.ThreadMXBean) &&
+          ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported())
+      {
+         allocations = (com.sun.management.ThreadMXBean)bean;
+         allocations.setThreadAllocatedMemoryEnabled(true);
+      }
+      game = new BubbleroidsGame(500, 360);
+      game.initGame();
+
+      System.out.println(String.format("%-34s %8s %8s %12s %10s", "Benchmark", "Entities", "Vertices", "ns/op", "B/op"));
+
+      // Sprite benchmarks.
+
+      for (e = 0; e < ENTITY_COUNTS.length; e++)
+      {
+         benchmarkEntitiesAdvance(ENTITY_COUNTS[e]);
+         for (v = 0; v < VERTEX_COUNTS.length; v++)
+         {
+            benchmarkAdvance(ENTITY_COUNTS[e], VERTEX_COUNTS[v]);
+            benchmarkRender(ENTITY_COUNTS[e], VERTEX_COUNTS[v]);
+            benchmarkIsColliding(ENTITY_COUNTS[e], VERTEX_COUNTS[v]);
+         }
+      }
+
+      // Game benchmarks.
+
+      for (v = 0; v < VERTEX_COUNTS.length; v++)
+      {
+         benchmarkExplode(VERTEX_COUNTS[v]);
+      }
+      benchmarkUpdateBubbleroids();
+      for (e = 0; e < ENTITY_COUNTS.length; e++)
+      {
+         benchmarkBounceBubbleroids(ENTITY_COUNTS[e]);
+      }
+      for (e = 0; (e < ENTITY_COUNTS.length) && (ENTITY_COUNTS[e] <= 4096); e++)
+      {
+         benchmarkSnapshot(ENTITY_COUNTS[e]);
+         benchmarkRewind(ENTITY_COUNTS[e]);
+      }
+
+      // Drawing.
+
+      for (e = 0; (e < ENTITY_COUNTS.length) && (ENTITY_COUNTS[e] <= 4096); e++)
+      {
+         benchmarkDrawBubbleroids(ENTITY_COUNTS[e]);
+      }
+      benchmarkStarfield(1);
+      benchmarkStarfield(4);
+      benchmarkStarfield(32);
+      benchmarkRaster(0, false);
+      benchmarkRaster(0, true);
+      for (v = 1; v <= Runtime.getRuntime().availableProcessors(); v *= 2)
+      {
+         benchmarkRaster(v, false);
+      }
+
+      // Pacing.
+
+      System.out.println();
+      benchmarkPacer();
+   }
+
+
+   static void benchmarkAdvance(int entities, int vertices)
+   {
+      final BubbleroidsSprite[] sprites = createSprites(entities, vertices);
+
+      measure("BubbleroidsSprite.advance", entities, vertices, entities, new Runnable()
+      {
+         public void run()
+         {
+            for (int i = 0; i < sprites.length; i++)
+            {
+               sprites[i].advance();
+            }
+            sink += (long)sprites[0].currentX;
+         }
+      });
+   }
+
+
+   static void benchmarkEntitiesAdvance(int entities)
+   {
+      final BubbleroidsEntities store = new BubbleroidsEntities(game.world, entities);
+      int                       i, j;
+
+      // Fill the store with moving objects that never expire.
+
+      for (i = 0; i < entities; i++)
+      {
+         j                    = store.allocate(false);
+         store.currentX[j]    = (i * 37) % game.world.width - game.world.width2;
+         store.currentY[j]    = (i * 53) % game.world.height - game.world.height2;
+         store.deltaX[j]      = (i % 7) - 3;
+         store.deltaY[j]      = (i % 5) - 2;
+         store.deltaAngle[j]  = Math.PI / 32.0;
+         store.counter[j]     = Integer.MAX_VALUE;
+      }
+      measure("BubbleroidsEntities.advance", entities, 0, entities, new Runnable()
+      {
+         public void run()
+         {
+            store.advance();
+            store.expire();
+            sink += (long)store.currentX[0];
+         }
+      });
+   }
+
+
+   static void benchmarkRender(int entities, int vertices)
+   {
+      final BubbleroidsSprite[] sprites = createSprites(entities, vertices);
+
+      measure("BubbleroidsSprite.render", entities, vertices, entities, new Runnable()
+      {
+         public void run()
+         {
+            for (int i = 0; i < sprites.length; i++)
+            {
+               sprites[i].render();
+            }
+            sink += sprites[0].sprite.xpoints[0];
+         }
+      });
+   }
+
+
+   static void benchmarkIsColliding(int entities, int vertices)
+   {
+      final BubbleroidsSprite[] sprites = createSprites(entities, vertices);
+      final BubbleroidsSprite   photon  = createSprite(4);
+      int                       i;
+
+      // Test each sprite against a photon, as the game does every tick.
+
+      for (i = 0; i < sprites.length; i++)
+      {
+         sprites[i].render();
+      }
+      photon.render();
+      measure("BubbleroidsSprite.isColliding", entities, vertices, entities, new Runnable()
+      {
+         public void run()
+         {
+            for (int i = 0; i < sprites.length; i++)
+            {
+               if (sprites[i].isColliding(photon))
+               {
+                  sink++;
+               }
+            }
+         }
+      });
+   }
+
+
+   static void benchmarkExplode(int vertices)
+   {
+      final BubbleroidsSprite s = createSprite(vertices);
+
+      measure("BubbleroidsGame.explode", 1, vertices, 1, new Runnable()
+      {
+         public void run()
+         {
+            game.explode(s);
+            sink += game.explosions.count;
+         }
+      });
+   }
+
+
+   static void benchmarkUpdateBubbleroids()
+   {
+      // Keep the ship out of the way so the bubbleroids only move and bounce.
+
+      game.initGame();
+      game.endGame();
+      measure("BubbleroidsGame.updateBubbleroids", game.bubbleroidsLeft, BubbleroidsGame.NUM_BUBBLE_SIDES, 1, new Runnable()
+      {
+         public void run()
+         {
+            game.updateBubbleroids();
+            sink += game.bubbleroidsLeft;
+         }
+      });
+   }
+
+
+   static void benchmarkBounceBubbleroids(int entities)
+   {
+      final BubbleroidsGame   bounceGame;
+      final BubbleroidsConfig config = new BubbleroidsConfig();
+      int                     width, height;
+
+      // Storm the bubbleroids over a screen big enough to keep about one to every
+      // 100 by 100 pixels, so the bounce work grows with the count and not the crowding.
+
+      width        = (int)(100 * Math.sqrt(entities * 1.4));
+      height       = (int)(width / 1.4);
+      config.storm = entities;
+      bounceGame   = new BubbleroidsGame(width, height, config);
+      bounceGame.initGame();
+      bounceGame.endGame();
+      measure("BubbleroidsGame.bounceBubbleroids", entities, config.sides, 1, new Runnable()
+      {
+         public void run()
+         {
+            bounceGame.bounceBubbleroids();
+            bounceGame.bubbleroids.advance();
+            sink += (long)bounceGame.bubbleroids.deltaX[0];
+         }
+      });
+   }
+
+
+   static void benchmarkSnapshot(int entities)
+   {
+      final BubbleroidsGame   snapshotGame;
+      final BubbleroidsConfig config = new BubbleroidsConfig();
+      final ByteBuffer        buffer;
+
+      // Save and restore a game with the given number of bubbleroids, in a storm past the usual
+      // number.
+
+      if (entities > config.bubbles)
+      {
+         config.storm = entities;
+      }
+      snapshotGame = new BubbleroidsGame(500, 360, config);
+      snapshotGame.initGame(1);
+      snapshotGame.step(BubbleroidsGame.FIRE);
+      buffer = ByteBuffer.allocate(snapshotGame.snapshotSize());
+      measure("BubbleroidsGame.save", entities, config.sides, 1, new Runnable()
+      {
+         public void run()
+         {
+            buffer.clear();
+            snapshotGame.save(buffer);
+            sink += buffer.position();
+         }
+      });
+      measure("BubbleroidsGame.restore", entities, config.sides, 1, new Runnable()
+      {
+         public void run()
+         {
+            buffer.rewind();
+            snapshotGame.restore(buffer);
+            sink += snapshotGame.score;
+         }
+      });
+   }
+
+
+   static void benchmarkRewind(int entities)
+   {
+      final BubbleroidsGame   rewindGame;
+      final BubbleroidsRewind rewind;
+      final BubbleroidsConfig config = new BubbleroidsConfig();
+
+      // Play ticks of a game with the given number of bubbleroids, keeping each for rewinding.
+
+      if (entities > config.bubbles)
+      {
+         config.storm = entities;
+      }
+      rewindGame = new BubbleroidsGame(500, 360, config);
+      rewindGame.initGame(1);
+      rewind = new BubbleroidsRewind(rewindGame, config.rewind);
+      measure("BubbleroidsRewind.record+step", entities, config.sides, 1, new Runnable()
+      {
+         public void run()
+         {
+            rewindGame.step(BubbleroidsGame.LEFT);
+            rewind.record();
+            sink += rewind.tail;
+         }
+      });
+   }
+
+
+   static void benchmarkDrawBubbleroids(int entities)
+   {
+      final BubbleroidsGame        drawGame;
+      final BubbleroidsConfig      config = new BubbleroidsConfig();
+      final BubbleroidsBubbleCache cache  = new BubbleroidsBubbleCache(null);
+      final Graphics               g;
+
+      // Draw the bubbleroids of a game with the given number of them, filled in, as ovals and
+      // from the cache.
+
+      if (entities > config.bubbles)
+      {
+         config.storm = entities;
+      }
+      drawGame = new BubbleroidsGame(500, 360, config);
+      drawGame.initGame(1);
+      g = new BufferedImage(500, 360, BufferedImage.TYPE_INT_RGB).getGraphics();
+      measure("Graphics.fillOval", entities, config.sides, drawGame.bubbleroids.count, new Runnable()
+      {
+         public void run()
+         {
+            BubbleroidsEntities e = drawGame.bubbleroids;
+            int                 i, r2;
+
+            for (i = 0; i < e.size; i++)
+            {
+               if (e.active[i])
+               {
+                  r2 = (int)Math.round(e.radius[i] * 2.0);
+                  g.setColor(BubbleroidsGame.BUBBLE_COLORS[drawGame.bubbleroidColor[i]]);
+                  g.fillOval((int)e.currentX[i] + 250 - r2 / 2, (int)e.currentY[i] + 180 - r2 / 2, r2, r2);
+               }
+            }
+         }
+      });
+      measure("BubbleroidsBubbleCache.draw", entities, config.sides, drawGame.bubbleroids.count, new Runnable()
+      {
+         public void run()
+         {
+            BubbleroidsEntities e = drawGame.bubbleroids;
+            int                 i, r2;
+
+            cache.frame();
+            for (i = 0; i < e.size; i++)
+            {
+               if (e.active[i])
+               {
+                  r2 = (int)Math.round(e.radius[i] * 2.0);
+                  cache.draw(g, BubbleroidsGame.BUBBLE_COLORS[drawGame.bubbleroidColor[i]], (int)e.currentX[i] + 250 - r2 / 2,
+                             (int)e.currentY[i] + 180 - r2 / 2, r2, true);
+               }
+            }
+            sink += cache.hits;
+         }
+      });
+   }
+
+
+   static void benchmarkStarfield(int layers)
+   {
+      final BubbleroidsStarfield starfield = new BubbleroidsStarfield(null, layers);
+      final Graphics             g         = new BufferedImage(1920, 1080, BufferedImage.TYPE_INT_RGB).getGraphics();
+      final int[]                x         = new int[1920 * 1080 / BubbleroidsStarfield.DENSITY * layers];
+      final int[]                y         = new int[x.length];
+      int                        i;
+
+      // Draw as many stars as the layers hold on a full HD screen, one by one over a cleared
+      // screen as the game used to, then from the starfield layers.
+
+      for (i = 0; i < x.length; i++)
+      {
+         x[i] = (int)(Math.random() * 1920);
+         y[i] = (int)(Math.random() * 1080);
+      }
+      measure("Graphics.drawLine stars", x.length, 0, 1, new Runnable()
+      {
+         public void run()
+         {
+            int i;
+
+            g.setColor(Color.black);
+            g.fillRect(0, 0, 1920, 1080);
+            g.setColor(Color.white);
+            for (i = 0; i < x.length; i++)
+            {
+               g.drawLine(x[i], y[i], x[i], y[i]);
+            }
+         }
+      });
+      measure("BubbleroidsStarfield.draw", x.length, 0, 1, new Runnable()
+      {
+         public void run()
+         {
+            starfield.draw(g, 1920, 1080, System.nanoTime() / 1e9);
+         }
+      });
+   }
+
+
+   static void benchmarkRaster(int threads, final boolean cached)
+   {
+      final BubbleroidsGame        drawGame;
+      final BubbleroidsConfig      config    = new BubbleroidsConfig();
+      final BubbleroidsStarfield   starfield = new BubbleroidsStarfield(null, 1);
+      final BubbleroidsBubbleCache cache     = new BubbleroidsBubbleCache(null);
+      final BubbleroidsRaster      raster;
+      final Graphics               g;
+
+      // Draw the sky and the bubbleroids of a 4K storm, through Graphics as ovals or from the
+      // bubble cache with no threads given, else on the raster with that many threads.
+
+      config.storm = 4096;
+      drawGame     = new BubbleroidsGame(3840, 2160, config);
+      drawGame.initGame(1);
+      raster = (threads > 0) ? new BubbleroidsRaster(3840, 2160, threads) : null;
+      g      = new BufferedImage(3840, 2160, BufferedImage.TYPE_INT_RGB).getGraphics();
+      measure((threads > 0) ? "BubbleroidsRaster " + threads + " threads" : cached ? "Graphics 4K frame cached" : "Graphics 4K frame ovals",
+              drawGame.bubbleroids.count, config.sides, 1, new Runnable()
+      {
+         public void run()
+         {
+            BubbleroidsEntities e = drawGame.bubbleroids;
+            int                 i, r2, x, y;
+
+            if (raster != null)
+            {
+               raster.begin(Color.black);
+               raster.sky(starfield, 0.0);
+            }
+            else
+            {
+               cache.frame();
+               starfield.draw(g, 3840, 2160, 0.0);
+            }
+            for (i = 0; i < e.size; i++)
+            {
+               if (e.active[i])
+               {
+                  r2 = (int)Math.round(e.radius[i] * 2.0);
+                  x  = (int)e.currentX[i] + 1920 - r2 / 2;
+                  y  = (int)e.currentY[i] + 1080 - r2 / 2;
+                  if (raster != null)
+                  {
+                     raster.oval(x, y, r2, BubbleroidsGame.BUBBLE_COLORS[drawGame.bubbleroidColor[i]], true);
+                  }
+                  else if (cached)
+                  {
+                     cache.draw(g, BubbleroidsGame.BUBBLE_COLORS[drawGame.bubbleroidColor[i]], x, y, r2, true);
+                  }
+                  else
+                  {
+                     g.setColor(BubbleroidsGame.BUBBLE_COLORS[drawGame.bubbleroidColor[i]]);
+                     g.fillOval(x, y, r2, r2);
+                  }
+               }
+            }
+            if (raster != null)
+            {
+               raster.end();
+            }
+         }
+      });
+      if (raster != null)
+      {
+         raster.shutdown();
+      }
+   }
+
+
+   static void benchmarkPacer()
+   {
+      BubbleroidsPacer sleeper = new BubbleroidsPacer();
+      BubbleroidsPacer pacer   = new BubbleroidsPacer();
+      long             period  = 2000000L;
+      long             ticks, deadline, wait;
+      int              i;
+
+      // Run ticks every 2 milliseconds for the measuring time, first sleeping to the millisecond
+      // as the game loop used to and then with the pacer, recording how late each one runs.
+
+      ticks = Math.max(1, measureMillis * 1000000L / period);
+      try
+      {
+         deadline = System.nanoTime();
+         for (i = 0; i < ticks; i++)
+         {
+            deadline += period;
+            wait      = deadline - System.nanoTime();
+            if (wait > 0)
+            {
+               Thread.sleep(wait / 1000000);
+            }
+            sleeper.record(System.nanoTime() - deadline);
+         }
+         deadline = System.nanoTime();
+         for (i = 0; i < ticks; i++)
+         {
+            deadline += period;
+            pacer.waitUntil(deadline);
+            pacer.record(System.nanoTime() - deadline);
+         }
+      }
+      catch (InterruptedException e) {
+         return;
+      }
+      System.out.println("Thread.sleep      " + sleeper);
+      System.out.println("BubbleroidsPacer  " + pacer);
+   }
+
+
+   // Run a benchmark and print the time and bytes allocated per operation.
+   static void measure(String name, int entities, int vertices, int opsPerRun, Runnable benchmark)
+   {
+      long   start, end, runs, bytes;
+      double nanos;
+
+      run(benchmark, warmupMillis);
+      bytes = allocatedBytes();
+      start = System.nanoTime();
+      runs  = run(benchmark, measureMillis);
+      end   = System.nanoTime();
+      bytes = allocatedBytes() - bytes;
+      nanos = (double)(end - start) / (runs * opsPerRun);
+      System.out.println(String.format("%-34s %8d %8d %12.1f %10s", name, entities, vertices, nanos,
+                                       (allocations == null) ? "n/a" : String.format("%.1f", (double)bytes / (runs * opsPerRun))));
+   }
+
+
+   // Run a benchmark repeatedly for the given time, returning the number of runs.
+   static long run(Runnable benchmark, int millis)
+   {
+      long runs, end;
+
+      runs = 0;
+      end  = System.nanoTime() + millis * 1000000L;
+      do
+      {
+         benchmark.run();
+         runs++;
+      } while (System.nanoTime() < end);
+      return(runs);
+   }
+
+
+   static long allocatedBytes()
+   {
+      if (allocations == null)
+      {
+         return(0);
+      }
+      return(allocations.getThreadAllocatedBytes(Thread.currentThread().getId()));
+   }
+
+
+   // Create sprites spread over the screen and moving, with the given number of vertices.
+   static BubbleroidsSprite[] createSprites(int entities, int vertices)
+   {
+      BubbleroidsSprite[] sprites = new BubbleroidsSprite[entities];
+      int                 i;
+
+      for (i = 0; i < entities; i++)
+      {
+         sprites[i]            = createSprite(vertices);
+         sprites[i].currentX   = (i * 37) % game.world.width - game.world.width2;
+         sprites[i].currentY   = (i * 53) % game.world.height - game.world.height2;
+         sprites[i].deltaX     = (i % 7) - 3;
+         sprites[i].deltaY     = (i % 5) - 2;
+         sprites[i].deltaAngle = Math.PI / 32.0;
+      }
+      return(sprites);
+   }
+
+
+   // Create a sprite using the game's shape with the given number of vertices.
+   static BubbleroidsSprite createSprite(int vertices)
+   {
+      BubbleroidsSprite s = new BubbleroidsSprite(game.world);
+      Polygon           shape;
+      double            theta;
+      int               i;
+
+      if (vertices == game.ship.shape.npoints)
+      {
+         shape = game.ship.shape;
+      }
+      else if (vertices == game.ufo.shape.npoints)
+      {
+         shape = game.ufo.shape;
+      }
+      else if (vertices == game.photonShape.npoints)
+      {
+         shape = game.photonShape;
+      }
+      else
+      {
+         shape = new Polygon();
+         for (i = 0; i < vertices; i++)
+         {
+            theta = 2 * Math.PI / vertices * i;
+            shape.addPoint((int)-Math.round(BubbleroidsGame.MAX_BUBBLE_SIZE * Math.sin(theta)),
+                           (int)Math.round(BubbleroidsGame.MAX_BUBBLE_SIZE * Math.cos(theta)));
+         }
+         s.radius = BubbleroidsGame.MAX_BUBBLE_SIZE;
+      }
+      s.shape  = shape;
+      s.active = true;
+      s.color  = Color.white;
+      return(s);
+   }
+}
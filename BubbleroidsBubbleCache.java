@@ -0,0 +1,244 @@
+/************************************************************************************************
+*
+*  BubbleroidsBubbleCache.java
+*
+************************************************************************************************/
+
+import java.awt.*;
+
+/************************************************************************************************
+*  The BubbleroidsBubbleCache class keeps bubbleroids drawn into small transparent images, so a
+*  bubbleroid is drawn as an image blit instead of an oval rasterized again every frame. An image
+*  is kept for each diameter, color and detail mode drawn, up to CAPACITY of them, the least
+*  recently drawn giving way to new ones. The images are drawn with the same fillOval() or
+*  drawOval() call as before, so a blit sets the same pixels the oval would have, but for the odd
+*  pixel of an outline cut off by the top or left edge of the screen.
+*
+*  The bound on the images needed is set by the bubbleroid palette, not by this class. Bubbleroid
+*  colors come from BubbleroidsGame.BUBBLE_COLORS, 16 of them, and at any one scale a bubbleroid
+*  has one of about 30 diameters, so with the two detail modes a game, even a storm, needs at
+*  most about 960 images, within CAPACITY: once they are made, every bubbleroid is drawn from
+*  one. More shades in the palette, or colors from outside it, would need more images than fit,
+*  and CAPACITY would have to grow with them. Should more be needed, and even the least recently
+*  drawn image was drawn in this frame or the one before, swapping images in and out would cost
+*  more than it saves, so the new one is drawn as an oval instead.
+*
+*  Images are found by key in an open hash table of slot numbers, and the slots are kept in a
+*  list from most to least recently used, so drawing a bubbleroid allocates nothing unless its
+*  image has to be made.
+************************************************************************************************/
+
+class BubbleroidsBubbleCache {
+   // Constants.
+
+   static final int CAPACITY = 1024;   // Most images kept, enough for the bubbleroid palette.
+
+   // Fields:
+
+   Component component;   // Component the images are made compatible with, or null.
+   long[]    keys;        // Diameter, color and detail mode of the image in each slot.
+   Image[]   images;
+   long[]    used;        // Frame each slot was last drawn in.
+   int[]     newer;       // Next more and less recently used slot, or -1.
+   int[]     older;
+   int       newest;      // Most and least recently used slot, or -1.
+   int       oldest;
+   int       count;       // Number of slots in use.
+   int[]     table;       // Hash table of slot numbers plus one, zero where empty.
+   int       mask;
+   long      frames;      // Number of frames drawn.
+   long      hits;        // Number of bubbleroids drawn from a kept image.
+   long      misses;      // Number that needed a new image.
+   long      ovals;       // Number drawn as ovals since there was no room for an image.
+
+   // Constructors:
+
+   public BubbleroidsBubbleCache(Component component)
+   {
+      this.component = component;
+      this.keys      = new long[CAPACITY];
+      this.images    = new Image[CAPACITY];
+      this.used      = new long[CAPACITY];
+      this.newer     = new int[CAPACITY];
+      this.older     = new int[CAPACITY];
+      this.table     = new int[Integer.highestOneBit(CAPACITY) * 4];
+      this.mask      = table.length - 1;
+      this.newest    = -1;
+      this.oldest    = -1;
+   }
+
+
+   // Methods:
+
+   public void draw(Graphics g, Color color, int x, int y, int diameter, boolean filled)
+   {
+      long key;
+      int  i, slot;
+
+      // Draw a bubbleroid with its bounding box at x, y, filled in or as an outline.
+
+      key = ((long)(color.getRGB() & 0xffffff) << 32) | ((long)diameter << 1) | (filled ? 1 : 0);
+      for (i = home(key); table[i] != 0; i = (i + 1) & mask)
+      {
+         if (keys[table[i] - 1] == key)
+         {
+            hits++;
+            slot = table[i] - 1;
+            used[slot] = frames;
+            unlink(slot);
+            link(slot);
+            g.drawImage(images[slot], x, y, null);
+            return;
+         }
+      }
+
+      // Make the image in a free slot, or in place of the least recently used one. Taking that
+      // one out of the table can move the others, so look again for where the new one goes.
+
+      if (count < CAPACITY)
+      {
+         slot = count++;
+      }
+      else if (used[oldest] >= frames - 1)
+      {
+         ovals++;
+         g.setColor(color);
+         if (filled)
+         {
+            g.fillOval(x, y, diameter, diameter);
+         }
+         else
+         {
+            g.drawOval(x, y, diameter, diameter);
+         }
+         return;
+      }
+      else
+      {
+         slot = oldest;
+         unlink(slot);
+         remove(slot);
+         images[slot].flush();
+         i = home(key);
+         while (table[i] != 0)
+         {
+            i = (i + 1) & mask;
+         }
+      }
+      misses++;
+      keys[slot]   = key;
+      used[slot]   = frames;
+      images[slot] = render(color, diameter, filled);
+      table[i]     = slot + 1;
+      link(slot);
+      g.drawImage(images[slot], x, y, null);
+   }
+
+
+   public void frame()
+   {
+      // Start drawing a new frame.
+
+      frames++;
+   }
+
+
+   Image render(Color color, int diameter, boolean filled)
+   {
+      Image    image;
+      Graphics g;
+
+      // Draw the oval into a transparent image, one pixel wider than the diameter since an
+      // outline covers that much.
+
+      image = BubbleroidsScreen.createImage(component, diameter + 1, diameter + 1, true);
+      g     = image.getGraphics();
+      g.setColor(color);
+      if (filled)
+      {
+         g.fillOval(0, 0, diameter, diameter);
+      }
+      else
+      {
+         g.drawOval(0, 0, diameter, diameter);
+      }
+      g.dispose();
+      return(image);
+   }
+
+
+   int home(long key)
+   {
+      return((int)BubbleroidsRandom.mix(key) & mask);
+   }
+
+
+   void remove(int slot)
+   {
+      int i, j, h;
+
+      // Take a slot out of the table. Later entries in its run that could have gone in its
+      // place are moved back, so every entry stays reachable from its home position.
+
+      i = home(keys[slot]);
+      while (table[i] != slot + 1)
+      {
+         i = (i + 1) & mask;
+      }
+      for (j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask)
+      {
+         h = home(keys[table[j] - 1]);
+         if (((j - h) & mask) >= ((j - i) & mask))
+         {
+            table[i] = table[j];
+            i        = j;
+         }
+      }
+      table[i] = 0;
+   }
+
+
+   void link(int slot)
+   {
+      // Make a slot the most recently used.
+
+      older[slot] = newest;
+      newer[slot] = -1;
+      if (newest >= 0)
+      {
+         newer[newest] = slot;
+      }
+      else
+      {
+         oldest = slot;
+      }
+      newest = slot;
+   }
+
+
+   void unlink(int slot)
+   {
+      if (newer[slot] >= 0)
+      {
+         older[newer[slot]] = older[slot];
+      }
+      else
+      {
+         newest = older[slot];
+      }
+      if (older[slot] >= 0)
+      {
+         newer[older[slot]] = newer[slot];
+      }
+      else
+      {
+         oldest = newer[slot];
+      }
+   }
+
+
+   public String toString()
+   {
+      return(String.format("Bubbles: %d cached, %d hits, %d misses, %d ovals", count, hits, misses, ovals));
+   }
+}
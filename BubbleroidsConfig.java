@@ -0,0 +1,176 @@
+/************************************************************************************************
+*
+*  BubbleroidsConfig.java
+*
+*  Settings, given as applet parameters or as name=value arguments to main():
+*
+*  shots=n    - Maximum number of photons in flight (default 6).
+*  bubbles=n  - Maximum number of bubbleroids (default 8).
+*  scrap=n    - Maximum number of pieces of explosion debris (default 20).
+*  sides=n    - Number of sides of a bubbleroid's collision shape (default 12).
+*  delay=n    - Milliseconds between ticks (default 50).
+*  fps=n      - Most frames drawn per second (default 0, the display's refresh rate).
+*  seed=n     - Seed for the random numbers of every game, so they play out the same way (default
+*               0, a different seed for each game).
+*  record=f   - Save the input of each game to file f when it is over, to be played back with
+*               BubbleroidsReplay (default none).
+*  storm=n    - Stress mode: each wave is n bubbleroids scattered over the whole screen (default 0,
+*               off). Room is made for each of them to split in two.
+*  rewind=n   - Seconds of play kept so the game can be wound back while R is held (default 10, 0
+*               for none).
+*  parallax=n - Number of star layers drifting by at different speeds (default 0, stars stay still).
+*  dirty=n    - 1 to redraw and show only the parts of the screen that changed since the last frame
+*               (default 0, the whole screen every frame). Has no effect with parallax, since the
+*               whole sky moves.
+*  raster=n   - Draw frames in software on n threads, a tile of the screen at a time (default 0,
+*               drawn through Graphics). Frames are then drawn whole, so dirty has no effect.
+*  latency=n  - Milliseconds of sound buffered between the mixer and the sound device, about the
+*               most a sound lags behind the game (default 40). Too little and sound breaks up.
+*
+************************************************************************************************/
+
+import java.util.*;
+
+/************************************************************************************************
+*  The BubbleroidsConfig class holds the entity limits and timing that used to be fixed in the
+*  code, so they can be set when the game is launched.
+************************************************************************************************/
+
+class BubbleroidsConfig {
+   // Setting names.
+
+   static final String[] NAMES = { "shots", "bubbles", "scrap", "sides", "delay", "fps", "seed", "record", "storm", "rewind", "parallax", "dirty", "raster", "latency" };
+
+   // Settings.
+
+   int shots   = BubbleroidsGame.MAX_SHOTS;
+   int bubbles = BubbleroidsGame.MAX_BUBBLES;
+   int scrap   = BubbleroidsGame.MAX_SCRAP;
+   int sides   = BubbleroidsGame.NUM_BUBBLE_SIDES;
+   int delay   = Bubbleroids.DELAY;
+   int fps     = 0;
+   long seed   = 0;
+
+   String record = null;
+   int storm   = 0;
+   int rewind  = 10;
+   int parallax = 0;
+   int dirty   = 0;
+   int raster  = 0;
+   int latency = 40;
+
+   // Methods:
+
+   public static BubbleroidsConfig parse(String[] args)
+   {
+      BubbleroidsConfig config = new BubbleroidsConfig();
+      int               i, j;
+
+      // Read name=value arguments.
+
+      for (i = 0; i < args.length; i++)
+      {
+         j = args[i].indexOf('=');
+         if ((j < 0) || !config.set(args[i].substring(0, j), args[i].substring(j + 1)))
+         {
+            throw new IllegalArgumentException("Unknown setting " + args[i]);
+         }
+      }
+      return(config);
+   }
+
+
+   public boolean set(String name, String value)
+   {
+      int n;
+
+      // Change a setting, returning false if there is no such setting.
+
+      if (!Arrays.asList(NAMES).contains(name))
+      {
+         return(false);
+      }
+      if (name.equals("record"))
+      {
+         record = value;
+         return(true);
+      }
+      try
+      {
+         if (name.equals("seed"))
+         {
+            // Seeds take any 64 bit value, as shown in the status bar.
+
+            seed = Long.parseLong(value.trim());
+            return(true);
+         }
+         n = Integer.parseInt(value.trim());
+      }
+      catch (NumberFormatException e) {
+         throw new IllegalArgumentException("Bad value for " + name + ": " + value);
+      }
+      if ((n < ((name.equals("fps") || name.equals("storm") || name.equals("rewind") ||
+                 name.equals("parallax") || name.equals("dirty") ||
+                 name.equals("raster")) ? 0 : 1)) || (name.equals("sides") && (n < 3)))
+      {
+         throw new IllegalArgumentException("Value out of range for " + name + ": " + value);
+      }
+      if (name.equals("shots"))
+      {
+         shots = n;
+      }
+      else if (name.equals("bubbles"))
+      {
+         bubbles = n;
+      }
+      else if (name.equals("scrap"))
+      {
+         scrap = n;
+      }
+      else if (name.equals("sides"))
+      {
+         sides = n;
+      }
+      else if (name.equals("delay"))
+      {
+         delay = n;
+      }
+      else if (name.equals("fps"))
+      {
+         fps = n;
+      }
+      else if (name.equals("storm"))
+      {
+         storm = n;
+      }
+      else if (name.equals("rewind"))
+      {
+         rewind = n;
+      }
+      else if (name.equals("parallax"))
+      {
+         parallax = n;
+      }
+      else if (name.equals("dirty"))
+      {
+         dirty = n;
+      }
+      else if (name.equals("raster"))
+      {
+         raster = n;
+      }
+      else
+      {
+         latency = n;
+      }
+      return(true);
+   }
+
+
+   public int bubbleCapacity()
+   {
+      // In a storm, leave room for every bubbleroid in a wave to split in two.
+
+      return(Math.max(bubbles, 3 * storm));
+   }
+}
@@ -0,0 +1,184 @@
+/************************************************************************************************
+*
+*  BubbleroidsDirty.java
+*
+************************************************************************************************/
+
+import java.util.*;
+
+/************************************************************************************************
+*  The BubbleroidsDirty class works out which parts of the screen have to be drawn again. Each
+*  frame, the box around everything drawn is marked on a grid of TILE pixel square tiles. A tile
+*  is dirty if it was marked in this frame or the one before, since what was drawn there last
+*  frame has to be rubbed out. The dirty tiles are then gathered into rectangles, runs of tiles
+*  along each row, with a run stretched down over the rows below that have the same run. So a
+*  frame costs a few small rectangles when little moves, and the marking costs nothing per pixel.
+*
+*  When most of the screen is dirty, or it is cut into too many rectangles, or the whole screen
+*  was invalidated, drawing it whole is cheaper, and merge() says so.
+************************************************************************************************/
+
+class BubbleroidsDirty {
+   // Constants.
+
+   static final int TILE      = 32;   // Width and height of a tile in pixels.
+   static final int MOST      = 64;   // Most rectangles drawn before drawing the whole screen.
+   static final int MOST_PART = 2;    // Drawn whole when more than 1 / MOST_PART of it is dirty.
+
+   // Fields:
+
+   int       width, height;   // Size of the screen in pixels and in tiles.
+   int       columns, rows;
+   boolean[] marked;          // Tiles marked this frame, and in the frame before.
+   boolean[] previous;
+   boolean   whole;           // Whether the next frame is to be drawn whole.
+   int[]     open;            // Rectangle the last run starting in each column went into.
+
+   int[] x, y;                // Dirty rectangles in pixels.
+   int[] w, h;
+   int   count;
+
+   long frames;               // Number of frames merged, how many were not drawn whole, and
+   long partial;              // the pixels drawn in all of them.
+   long pixels;
+
+   // Constructors:
+
+   public BubbleroidsDirty(int width, int height)
+   {
+      this.width    = width;
+      this.height   = height;
+      this.columns  = (width + TILE - 1) / TILE;
+      this.rows     = (height + TILE - 1) / TILE;
+      this.marked   = new boolean[columns * rows];
+      this.previous = new boolean[columns * rows];
+      this.open     = new int[columns];
+      this.x        = new int[MOST];
+      this.y        = new int[MOST];
+      this.w        = new int[MOST];
+      this.h        = new int[MOST];
+      this.whole    = true;
+   }
+
+
+   // Methods:
+
+   public void add(int left, int top, int width, int height)
+   {
+      int c0, c1, r0, r1, r, c;
+
+      // Mark the tiles under a box, the parts off the screen being left out.
+
+      c0 = Math.max(left, 0) / TILE;
+      r0 = Math.max(top, 0) / TILE;
+      c1 = Math.min(left + width, this.width) - 1;
+      r1 = Math.min(top + height, this.height) - 1;
+      if ((width <= 0) || (height <= 0) || (c1 < 0) || (r1 < 0))
+      {
+         return;
+      }
+      c1 /= TILE;
+      r1 /= TILE;
+      for (r = r0; r <= r1; r++)
+      {
+         for (c = c0; c <= c1; c++)
+         {
+            marked[r * columns + c] = true;
+         }
+      }
+   }
+
+
+   public void invalidate()
+   {
+      // Have the next frame drawn whole, as when the screen has been drawn over.
+
+      whole = true;
+   }
+
+
+   public boolean merge()
+   {
+      boolean[] t;
+      int       r, c, c0, k, n;
+      boolean   fits;
+
+      // Gather the tiles marked in this frame and the one before into rectangles, returning
+      // false if the frame should be drawn whole instead. Either way the marks of this frame are
+      // kept for the next one.
+
+      count = 0;
+      n     = 0;
+      fits  = !whole;
+      for (r = 0; (r < rows) && fits; r++)
+      {
+         c = 0;
+         while ((c < columns) && fits)
+         {
+            if (!marked[r * columns + c] && !previous[r * columns + c])
+            {
+               c++;
+               continue;
+            }
+            c0 = c;
+            while ((c < columns) && (marked[r * columns + c] || previous[r * columns + c]))
+            {
+               c++;
+            }
+            n += c - c0;
+
+            // Stretch the rectangle of the same run in the row above, if there was one.
+
+            k = open[c0];
+            if ((r > 0) && (k >= 0) && (k < count) && (x[k] == c0 * TILE) &&
+                (x[k] + w[k] == Math.min(c * TILE, width)) && (y[k] + h[k] == r * TILE))
+            {
+               h[k] = Math.min((r + 1) * TILE, height) - y[k];
+            }
+            else if (count < MOST)
+            {
+               k        = count++;
+               x[k]     = c0 * TILE;
+               y[k]     = r * TILE;
+               w[k]     = Math.min(c * TILE, width) - x[k];
+               h[k]     = Math.min((r + 1) * TILE, height) - y[k];
+               open[c0] = k;
+            }
+            else
+            {
+               fits = false;
+            }
+         }
+      }
+      fits = fits && (n * MOST_PART <= columns * rows);
+
+      t        = previous;
+      previous = marked;
+      marked   = t;
+      Arrays.fill(marked, false);
+      whole = false;
+      frames++;
+      if (fits)
+      {
+         partial++;
+         for (k = 0; k < count; k++)
+         {
+            pixels += (long)w[k] * h[k];
+         }
+      }
+      else
+      {
+         count   = 0;
+         pixels += (long)width * height;
+      }
+      return(fits);
+   }
+
+
+   public String toString()
+   {
+      return(String.format("Dirty: %d%% of frames in part, %d%% of pixels drawn",
+                           (frames > 0) ? partial * 100 / frames : 0,
+                           (frames > 0) ? pixels * 100 / (frames * width * height) : 0));
+   }
+}
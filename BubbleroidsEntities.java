@@ -0,0 +1,351 @@
+/************************************************************************************************
+*
+*  BubbleroidsEntities.java
+*
+************************************************************************************************/
+
+import java.nio.*;
+
+/************************************************************************************************
+*  The BubbleroidsEntities class stores a group of game objects of the same kind, such as the
+*  bubbleroids, photons or explosion debris, as parallel arrays rather than one sprite object each.
+*  Slots are handed out from a free list and released when an object is destroyed. A list of the
+*  active slots is kept as well, so sweeps whose order does not matter, such as moving the group,
+*  visit only live objects however many slots a thinned out storm left behind. Sweeps whose order
+*  matters go through the slots in turn. The rotations and positions before the last move are
+*  kept so the objects can be drawn part way between ticks. The whole group can be saved to and
+*  restored from a buffer.
+************************************************************************************************/
+
+class BubbleroidsEntities {
+   // Fields:
+
+   BubbleroidsWorld world;   // Playing area the objects move in.
+
+   int       capacity;              // Maximum number of objects.
+   int       size;                  // Number of slots handed out so far, active or not.
+   int       count;                 // Number of active objects.
+   boolean[] active;                // Active flags.
+   double[]  angle;                 // Current angles of rotation.
+   double[]  deltaAngle;            // Amounts to change the rotation angles.
+   double[]  currentX, currentY;    // Current positions on screen.
+   double[]  deltaX, deltaY;        // Amounts to change the screen positions.
+   double[]  previousAngle;         // Rotations and positions before the last move.
+   double[]  previousX, previousY;
+   double[]  radius;                // Radii of round objects.
+   int[]     counter;               // Time counters.
+   int[]     free;                  // Released slots below size, ready for reuse.
+   int       freeCount;
+   int       recycle;               // Next slot to take over when all slots are active.
+   int[]     live;                  // Active slots, count of them, in no particular order.
+   int[]     place;                 // Where each active slot is in live.
+   boolean   stale;                 // Whether live has to be gathered again after a restore.
+
+   // Constructors:
+
+   public BubbleroidsEntities(BubbleroidsWorld world, int capacity)
+   {
+      this.world         = world;
+      this.capacity      = capacity;
+      this.active        = new boolean[capacity];
+      this.angle         = new double[capacity];
+      this.deltaAngle    = new double[capacity];
+      this.currentX      = new double[capacity];
+      this.currentY      = new double[capacity];
+      this.deltaX        = new double[capacity];
+      this.deltaY        = new double[capacity];
+      this.previousAngle = new double[capacity];
+      this.previousX     = new double[capacity];
+      this.previousY     = new double[capacity];
+      this.radius        = new double[capacity];
+      this.counter       = new int[capacity];
+      this.free          = new int[capacity];
+      this.live          = new int[capacity];
+      this.place         = new int[capacity];
+      clear();
+   }
+
+
+   // Methods:
+
+   public void clear()
+   {
+      int i;
+
+      // Deactivate all objects and return all slots.
+
+      for (i = 0; i < size; i++)
+      {
+         active[i] = false;
+      }
+      size      = 0;
+      count     = 0;
+      freeCount = 0;
+      recycle   = 0;
+      stale     = false;
+   }
+
+
+   public int allocate(boolean steal)
+   {
+      int i;
+
+      // Activate a free slot and return it, or -1 if there are none. If asked to, take over
+      // an active slot instead, cycling through them so the oldest objects tend to go first.
+
+      if (freeCount > 0)
+      {
+         i = free[--freeCount];
+      }
+      else if (size < capacity)
+      {
+         i = size++;
+      }
+      else if (steal && (capacity > 0))
+      {
+         i = recycle;
+         if (++recycle >= capacity)
+         {
+            recycle = 0;
+         }
+         return(i);
+      }
+      else
+      {
+         return(-1);
+      }
+      active[i]     = true;
+      angle[i]      = 0.0;
+      deltaAngle[i] = 0.0;
+      live[count]   = i;
+      place[i]      = count;
+      count++;
+      return(i);
+   }
+
+
+   public void release(int i)
+   {
+      if (active[i])
+      {
+         active[i]         = false;
+         free[freeCount++] = i;
+         count--;
+         live[place[i]]     = live[count];
+         place[live[count]] = place[i];
+      }
+   }
+
+
+   public int[] live()
+   {
+      int i;
+
+      // Return the active slots, the first count of them, gathering them again if the store
+      // was restored since.
+
+      if (stale)
+      {
+         count = 0;
+         for (i = 0; i < size; i++)
+         {
+            if (active[i])
+            {
+               live[count] = i;
+               place[i]    = count;
+               count++;
+            }
+         }
+         stale = false;
+      }
+      return(live);
+   }
+
+
+   public void advance()
+   {
+      int[]  slots   = live();
+      int    i, k;
+      double twoPi   = 2 * Math.PI;
+      double width   = world.width;
+      double width2  = world.width2;
+      double height  = world.height;
+      double height2 = world.height2;
+
+      // Update the rotation and position of every active slot based on the delta values,
+      // wrapping around the edges of the screen the same way BubbleroidsSprite.advance() does.
+
+      for (k = 0; k < count; k++)
+      {
+         i = slots[k];
+         previousAngle[i] = angle[i];
+         previousX[i]     = currentX[i];
+         previousY[i]     = currentY[i];
+         angle[i] += deltaAngle[i];
+         if (angle[i] < 0)
+         {
+            angle[i] += twoPi;
+         }
+         if (angle[i] > twoPi)
+         {
+            angle[i] -= twoPi;
+         }
+         currentX[i] += deltaX[i];
+         if (currentX[i] < -width2)
+         {
+            currentX[i] += width;
+         }
+         if (currentX[i] > width2)
+         {
+            currentX[i] -= width;
+         }
+         currentY[i] -= deltaY[i];
+         if (currentY[i] < -height2)
+         {
+            currentY[i] += height;
+         }
+         if (currentY[i] > height2)
+         {
+            currentY[i] -= height;
+         }
+      }
+   }
+
+
+   // Rotation and position of an object the fraction alpha of the way through the last move.
+   public double angle(int i, double alpha)
+   {
+      return(BubbleroidsSprite.between(previousAngle[i], angle[i], deltaAngle[i], alpha));
+   }
+
+
+   public double x(int i, double alpha)
+   {
+      return(BubbleroidsSprite.between(previousX[i], currentX[i], deltaX[i], alpha));
+   }
+
+
+   public double y(int i, double alpha)
+   {
+      return(BubbleroidsSprite.between(previousY[i], currentY[i], -deltaY[i], alpha));
+   }
+
+
+   public void expire()
+   {
+      int i;
+
+      // Count down the active objects and release those whose counters have expired.
+
+      for (i = 0; i < size; i++)
+      {
+         if (active[i] && (--counter[i] < 0))
+         {
+            release(i);
+         }
+      }
+   }
+
+
+   public void save(ByteBuffer b)
+   {
+      int i;
+
+      // Write the bookkeeping and the slots handed out so far. Slots past size are all inactive.
+
+      saveBookkeeping(b);
+      for (i = 0; i < size; i++)
+      {
+         saveSlot(b, i);
+      }
+   }
+
+
+   public void restore(ByteBuffer b)
+   {
+      int i;
+
+      restoreBookkeeping(b);
+      for (i = 0; i < size; i++)
+      {
+         restoreSlot(b, i);
+      }
+   }
+
+
+   public void saveBookkeeping(ByteBuffer b)
+   {
+      int i;
+
+      // Write the slot counts and the free list.
+
+      b.putInt(size).putInt(count).putInt(freeCount).putInt(recycle);
+      for (i = 0; i < freeCount; i++)
+      {
+         b.putInt(free[i]);
+      }
+   }
+
+
+   public void restoreBookkeeping(ByteBuffer b)
+   {
+      int i, n;
+
+      n = b.getInt();
+      if (n > capacity)
+      {
+         throw new IllegalArgumentException("Saved store of " + n + " does not fit in " + capacity);
+      }
+      for (i = n; i < size; i++)
+      {
+         active[i] = false;
+      }
+      size      = n;
+      count     = b.getInt();
+      freeCount = b.getInt();
+      recycle   = b.getInt();
+      for (i = 0; i < freeCount; i++)
+      {
+         free[i] = b.getInt();
+      }
+      stale = true;
+   }
+
+
+   public void saveSlot(ByteBuffer b, int i)
+   {
+      b.put((byte)(active[i] ? 1 : 0));
+      b.putDouble(angle[i]).putDouble(deltaAngle[i]);
+      b.putDouble(currentX[i]).putDouble(currentY[i]);
+      b.putDouble(deltaX[i]).putDouble(deltaY[i]);
+      b.putDouble(previousAngle[i]).putDouble(previousX[i]).putDouble(previousY[i]);
+      b.putDouble(radius[i]);
+      b.putInt(counter[i]);
+   }
+
+
+   public void restoreSlot(ByteBuffer b, int i)
+   {
+      active[i]        = (b.get() != 0);
+      angle[i]         = b.getDouble();
+      deltaAngle[i]    = b.getDouble();
+      currentX[i]      = b.getDouble();
+      currentY[i]      = b.getDouble();
+      deltaX[i]        = b.getDouble();
+      deltaY[i]        = b.getDouble();
+      previousAngle[i] = b.getDouble();
+      previousX[i]     = b.getDouble();
+      previousY[i]     = b.getDouble();
+      radius[i]        = b.getDouble();
+      counter[i]       = b.getInt();
+      stale            = true;
+   }
+
+
+   public int saveSize()
+   {
+      // Most bytes save() writes.
+
+      return(4 * 4 + capacity * (1 + 10 * 8 + 4) + capacity * 4);
+   }
+}
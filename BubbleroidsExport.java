@@ -0,0 +1,353 @@
+/************************************************************************************************
+*
+*  BubbleroidsExport.java
+*
+*  Usage:
+*
+*  java -Djava.awt.headless=true BubbleroidsExport [name=value ...] [file]
+*
+*  Plays a recorded game, or without a file a new game with no input, as fast as it can, and
+*  draws chosen ticks into images the way the game draws them on the screen. The images are
+*  written out as they come by worker threads. At the end, prints how many frames were drawn,
+*  dropped and written, and how many per second. Besides the settings of BubbleroidsConfig, which
+*  are those of the game played without a file (only parallax and raster are used with one):
+*
+*  from=n    - First tick drawn (default 0).
+*  to=n      - Last tick played (default the end of the recording, or 1200 without one).
+*  every=n   - Draw every n-th tick from the first (default 1).
+*  size=WxH  - Size of the frames in pixels (default the size of space). Space is scaled to fit.
+*  format=f  - png, or raw for bare 24 bit RGB pixels (default png).
+*  out=dir   - Directory the frames are written to, as frame-tick.png or frame-tick.rgb (default
+*              frames).
+*  threads=n - Number of worker threads writing frames (default the number of processors).
+*  queue=n   - Most frames drawn and not yet written (default 64). A frame due while the queue is
+*              full is dropped rather than hold up play.
+*  wait=n    - 1 to wait for room in the queue instead, so no frame is dropped, as for regression
+*              runs that compare every frame (default 0).
+*
+************************************************************************************************/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.imageio.*;
+
+/************************************************************************************************
+*  The BubbleroidsExport class draws the frames of a game without a display. Each chosen tick is
+*  drawn by BubbleroidsView into an offscreen image, which is handed to a pool of worker threads
+*  to be encoded and written. Images are taken from a free queue holding at most queue of them
+*  and go back to it once written, so the frames waiting are bounded, nothing is allocated per
+*  frame on the playing thread, and playing never waits on the disk or the encoder.
+************************************************************************************************/
+
+class BubbleroidsExport {
+   // Settings.
+
+   int    from    = 0;
+   int    to      = -1;
+   int    every   = 1;
+   int    width   = 0;
+   int    height  = 0;
+   String format  = "png";
+   File   out     = new File("frames");
+   int    threads = Runtime.getRuntime().availableProcessors();
+   int    queue   = 64;
+   int    wait    = 0;
+
+   // Images free to draw into, how many have been made, and the workers writing them.
+
+   ArrayBlockingQueue<BufferedImage> free;
+   int                               made;
+   ExecutorService                   workers;
+
+   // Frames drawn, dropped and written, nanoseconds spent playing and drawing them, and the
+   // first error writing one.
+
+   int                  drawn;
+   int                  dropped;
+   AtomicInteger        written = new AtomicInteger();
+   long                 playNanos;
+   volatile IOException failure;
+
+   // Methods:
+
+   public boolean set(String name, String value)
+   {
+      int i;
+
+      // Change a setting, returning false if there is no such setting.
+
+      try
+      {
+         if (name.equals("from"))
+         {
+            from = Integer.parseInt(value.trim());
+         }
+         else if (name.equals("to"))
+         {
+            to = Integer.parseInt(value.trim());
+         }
+         else if (name.equals("every"))
+         {
+            every = Integer.parseInt(value.trim());
+         }
+         else if (name.equals("size"))
+         {
+            i      = value.indexOf('x');
+            width  = Integer.parseInt(value.substring(0, Math.max(0, i)).trim());
+            height = Integer.parseInt(value.substring(i + 1).trim());
+         }
+         else if (name.equals("format"))
+         {
+            format = value;
+         }
+         else if (name.equals("out"))
+         {
+            out = new File(value);
+         }
+         else if (name.equals("threads"))
+         {
+            threads = Integer.parseInt(value.trim());
+         }
+         else if (name.equals("queue"))
+         {
+            queue = Integer.parseInt(value.trim());
+         }
+         else if (name.equals("wait"))
+         {
+            wait = Integer.parseInt(value.trim());
+         }
+         else
+         {
+            return(false);
+         }
+      }
+      catch (NumberFormatException e) {
+         throw new IllegalArgumentException("Bad value for " + name + ": " + value);
+      }
+      if ((from < 0) || (every < 1) || (width < 0) || (height < 0) || (threads < 1) || (queue < 1) || (wait < 0) ||
+          (!format.equals("png") && !format.equals("raw")))
+      {
+         throw new IllegalArgumentException("Value out of range for " + name + ": " + value);
+      }
+      return(true);
+   }
+
+
+   public void export(BubbleroidsGame game, BubbleroidsReplay replay, BubbleroidsConfig config) throws IOException, InterruptedException
+   {
+      BubbleroidsView view;
+      long            start;
+      int             tick;
+
+      // Play the game, from a recording if there is one, drawing the chosen ticks and waiting at
+      // the end for the last of them to be written.
+
+      if (!out.isDirectory() && !out.mkdirs())
+      {
+         throw new IOException("Cannot make directory " + out);
+      }
+      if (to < 0)
+      {
+         to = (replay != null) ? replay.ticks : 1200;
+      }
+      if (replay != null)
+      {
+         to = Math.min(to, replay.ticks);
+      }
+      if (width == 0)
+      {
+         width  = game.world.width;
+         height = game.world.height;
+      }
+      view                  = new BubbleroidsView(game, null, new Font("Helvetica", Font.BOLD, 12), config.parallax, width, height);
+      view.starfield.random = new Random(game.seed);
+      if (config.raster > 0)
+      {
+         view.raster = new BubbleroidsRaster(width, height, config.raster);
+      }
+      free    = new ArrayBlockingQueue<BufferedImage>(queue);
+      workers = Executors.newFixedThreadPool(threads, Bubbleroids.threads("Bubbleroids export"));
+      start   = System.nanoTime();
+      try
+      {
+         for (tick = 0; ; tick++)
+         {
+            if ((tick >= from) && ((tick - from) % every == 0))
+            {
+               draw(view, tick, tick * config.delay / 1000.0);
+            }
+            if (tick >= to)
+            {
+               break;
+            }
+            game.step((replay != null) ? replay.next() : 0);
+         }
+         playNanos = System.nanoTime() - start;
+      }
+      finally
+      {
+         workers.shutdown();
+         workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+         if (view.raster != null)
+         {
+            view.raster.shutdown();
+         }
+      }
+      if (failure != null)
+      {
+         throw failure;
+      }
+   }
+
+
+   void draw(BubbleroidsView view, final int tick, double seconds) throws InterruptedException
+   {
+      final BufferedImage image;
+      Graphics            g;
+
+      // Draw a tick into a free image and hand it to the workers, or drop it if none is free
+      // unless told to wait for one.
+
+      if ((free.peek() == null) && (made < queue))
+      {
+         free.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+         made++;
+      }
+      image = (wait > 0) ? free.take() : free.poll();
+      if (image == null)
+      {
+         dropped++;
+         return;
+      }
+      view.skySeconds = seconds;
+      view.layout("Game Over");
+      g = image.createGraphics();
+      if (view.raster != null)
+      {
+         g.drawImage(view.drawRaster(0.0), 0, 0, null);
+      }
+      else
+      {
+         view.draw(g, 0.0);
+      }
+      g.dispose();
+      drawn++;
+      workers.execute(new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               write(image, tick);
+               written.incrementAndGet();
+            }
+            catch (IOException e) {
+               failure = e;
+            }
+            finally
+            {
+               free.add(image);
+            }
+         }
+      });
+   }
+
+
+   void write(BufferedImage image, int tick) throws IOException
+   {
+      int[]        pixels;
+      byte[]       rgb;
+      int          i;
+      OutputStream stream;
+
+      // Write a frame in the chosen format. Raw frames are the pixels row by row, three bytes
+      // each, as read by ffmpeg with -f rawvideo -pix_fmt rgb24.
+
+      if (format.equals("png"))
+      {
+         ImageIO.write(image, "png", new File(out, String.format("frame-%06d.png", tick)));
+         return;
+      }
+      pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+      rgb    = new byte[3 * pixels.length];
+      for (i = 0; i < pixels.length; i++)
+      {
+         rgb[3 * i]     = (byte)(pixels[i] >> 16);
+         rgb[3 * i + 1] = (byte)(pixels[i] >> 8);
+         rgb[3 * i + 2] = (byte)pixels[i];
+      }
+      stream = new FileOutputStream(new File(out, String.format("frame-%06d.rgb", tick)));
+      try
+      {
+         stream.write(rgb);
+      }
+      finally
+      {
+         stream.close();
+      }
+   }
+
+
+   // Main.
+   public static void main(String[] args) throws IOException, InterruptedException
+   {
+      BubbleroidsExport export = new BubbleroidsExport();
+      BubbleroidsConfig config = new BubbleroidsConfig();
+      BubbleroidsReplay replay = null;
+      BubbleroidsGame   game;
+      String            name, value;
+      long              start, nanos;
+      int               i, j;
+
+      // Read the settings and the recording, if any.
+
+      try
+      {
+         for (i = 0; i < args.length; i++)
+         {
+            j = args[i].indexOf('=');
+            if (j < 0)
+            {
+               replay = BubbleroidsReplay.load(args[i]);
+               continue;
+            }
+            name  = args[i].substring(0, j);
+            value = args[i].substring(j + 1);
+            if (!export.set(name, value) && !config.set(name, value))
+            {
+               throw new IllegalArgumentException("Unknown setting " + args[i]);
+            }
+         }
+      }
+      catch (IllegalArgumentException e) {
+         System.err.println(e.getMessage());
+         System.err.println("Settings: from=n to=n every=n size=WxH format=png|raw out=dir threads=n queue=n wait=n " +
+                            String.join("=n ", BubbleroidsConfig.NAMES) + "=n");
+         System.exit(1);
+      }
+
+      // Play and draw.
+
+      if (replay != null)
+      {
+         game = replay.start();
+      }
+      else
+      {
+         game = new BubbleroidsGame(500, 360, config);
+         game.initGame();
+      }
+      start = System.nanoTime();
+      export.export(game, replay, config);
+      nanos = System.nanoTime() - start;
+      System.out.println(String.format("%d frames of %dx%d drawn in %.1f s (%.1f frames/s), %d dropped, %d written to %s in %.1f s (%.1f frames/s)",
+                                       export.drawn, export.width, export.height, export.playNanos / 1.0e9,
+                                       export.drawn * 1.0e9 / Math.max(1, export.playNanos), export.dropped,
+                                       export.written.get(), export.out, nanos / 1.0e9,
+                                       export.written.get() * 1.0e9 / Math.max(1, nanos)));
+   }
+}
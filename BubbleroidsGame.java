@@ -0,0 +1,1392 @@
+/************************************************************************************************
+*
+*  BubbleroidsGame.java
+*
+*  Usage:
+*
+*  BubbleroidsGame game = new BubbleroidsGame(500, 360);
+*  game.initGame();
+*  while (game.playing)
+*  {
+*     game.step(BubbleroidsGame.UP | BubbleroidsGame.FIRE);
+*  }
+*
+************************************************************************************************/
+
+import java.awt.*;
+import java.nio.*;
+
+/************************************************************************************************
+*  The BubbleroidsGame class holds all of the game state and the tick logic. It has no display,
+*  control panel or sound, so it can be stepped headless as fast as the caller likes. The applet
+*  drives it one step per tick, feeding it the keys held down and reading back the sprites to draw
+*  and the sounds to play. The state can be saved to a buffer as a snapshot and restored into any
+*  game created with the same screen size and limits, to resume or fork a game.
+************************************************************************************************/
+
+class BubbleroidsGame {
+   // Constants
+
+   static final int MAX_SHIPS = 3;         // Starting number of ships per game.
+
+   static final int MAX_SHOTS   = 6;       // Default maximum number of photons,
+   static final int MAX_BUBBLES = 8;       // bubbleroids and explosion debris.
+   static final int MAX_SCRAP   = 20;
+
+   static final int SCRAP_COUNT = 30;       // Counter starting values.
+   static final int HYPER_COUNT = 60;
+   static final int STORM_PAUSE = 30;
+   static final int UFO_PASSES  = 3;
+
+   static final int NUM_BUBBLE_SIDES = 12;    // Bubbleroid default sides, size and speed ranges.
+   static final int MIN_BUBBLE_SIZE  = 20;
+   static final int MAX_BUBBLE_SIZE  = 40;
+   static final int MIN_BUBBLE_SPEED = 2;
+   static final int MAX_BUBBLE_SPEED = 12;
+
+   static final int BUBBLE_SHADES = 4;     // Levels of red and of green in bubbleroid colors.
+
+   // Bubbleroid colors, blue with some red and green, and the colors the debris of each fades
+   // through. Bubbleroids keep an index into these, so a storm shares a handful of colors.
+   // There are BUBBLE_SHADES squared of them, where bubbleroids could once be any shade of red
+   // and green, so every fade is made once and BubbleroidsBubbleCache has room for an image of
+   // every bubbleroid. Adding shades costs cache room: see CAPACITY there.
+
+   static final Color[]   BUBBLE_COLORS = bubbleColors();
+   static final Color[][] BUBBLE_FADES  = bubbleFades();
+
+   static final double PHOTON_RADIUS = 1.5;  // Photons are tested as circles 3 pixels across.
+
+   static final int BIG_POINTS    = 25;     // Points for shooting different objects.
+   static final int SMALL_POINTS  = 50;
+   static final int UFO_POINTS    = 250;
+   static final int MISSLE_POINTS = 500;
+
+   static final int NEW_SHIP_POINTS = 5000; // Number of points needed to earn a new ship.
+   static final int NEW_UFO_POINTS  = 2750; // Number of points between flying saucers.
+
+   // Input flags for step(). The first four are held keys, the rest are one-shot actions.
+
+   static final int LEFT       = 0x01;
+   static final int RIGHT      = 0x02;
+   static final int UP         = 0x04;
+   static final int DOWN       = 0x08;
+   static final int FIRE       = 0x10;
+   static final int HYPERSPACE = 0x20;
+   static final int LAUNCH_UFO = 0x40;
+
+   // Sound flags, set by step() for each sound triggered during the tick.
+
+   static final int CRASH_SOUND     = 0x01;
+   static final int EXPLOSION_SOUND = 0x02;
+   static final int FIRE_SOUND      = 0x04;
+   static final int WARP_SOUND      = 0x08;
+
+   // Snapshot header.
+
+   static final int SNAPSHOT_MAGIC   = 0x42534e50;  // "BSNP"
+   static final int SNAPSHOT_VERSION = 2;
+
+   // Settings.
+
+   BubbleroidsConfig config;
+
+   // Size of the playing area.
+
+   BubbleroidsWorld world;
+
+   // Random numbers, started from the seed at the beginning of each game.
+
+   long              seed;
+   BubbleroidsRandom random = new BubbleroidsRandom(0);
+
+   // Input recording of the game being played, or null if it is not being recorded.
+
+   BubbleroidsReplay recording;
+
+   // Game data.
+
+   int score;
+   int highScore;
+   int newShipScore;
+   int newUfoScore;
+
+   boolean playing;
+
+   // Key flags.
+
+   boolean left  = false;
+   boolean right = false;
+   boolean up    = false;
+   boolean down  = false;
+
+   // Sprite objects.
+
+   BubbleroidsSprite ship;
+   BubbleroidsSprite ufo;
+   BubbleroidsSprite missile;
+
+   // Entity stores for the photons, bubbleroids and explosion debris.
+
+   BubbleroidsEntities photons;
+   BubbleroidsEntities bubbleroids;
+   BubbleroidsEntities explosions;
+
+   // Scratch sprite a bubbleroid is copied into to explode it.
+
+   BubbleroidsSprite bubbleroidSprite;
+
+   // Ship data.
+
+   int shipsLeft;      // Number of ships left to play, including current one.
+   int shipCounter;    // Time counter for ship explosion.
+   int hyperCounter;   // Time counter for hyperspace.
+
+   // Photon data.
+
+   Polygon photonShape;   // Shape shared by all photons.
+
+   // Flying saucer data.
+
+   int ufoPassesLeft;   // Number of flying saucer passes.
+   int ufoCounter;      // Time counter for each pass.
+
+   // Missile data.
+
+   int missileCounter;   // Counter for life of missile.
+
+   // Bubbleroid data.
+
+   boolean[] bubbleroidIsSmall;                            // Bubbleroid size flag.
+   int[]     bubbleroidColor;                              // Bubbleroid color, in BUBBLE_COLORS.
+   Polygon[] bubbleroidShapes  = new Polygon[MAX_BUBBLE_SIZE + 1]; // Shapes by radius.
+   BubbleroidsGrid bubbleroidsGrid = new BubbleroidsGrid();  // Finds bubbleroids near each other.
+   int bubbleroidsCounter;                                 // Break-time counter.
+   int bubbleroidsSpeed;                                   // Bubbleroid speed.
+   int bubbleroidsLeft;                                    // Number of active bubbleroids.
+
+   // Explosion data.
+
+   int[]     explosionShape;   // Line segment of each piece of debris, as x1, y1, x2, y2.
+   Color[]   explosionColor;   // Debris color.
+   Color[][] explosionFade;    // Colors the debris fades through, by counter.
+
+   // Sounds triggered by the last step, and flags for looping sounds.
+
+   int     sounds;
+   boolean thrustersPlaying;
+   boolean saucerPlaying;
+   boolean missilePlaying;
+
+   // Constructors:
+
+   public BubbleroidsGame(int width, int height)
+   {
+      this(width, height, new BubbleroidsConfig());
+   }
+
+
+   public BubbleroidsGame(int width, int height, BubbleroidsConfig config)
+   {
+      this.config = config;
+
+      // Set the size of the playing area, shared by this game's sprites and stores only.
+
+      this.world = new BubbleroidsWorld(width, height);
+
+      // Create shape for the ship sprite.
+
+      ship = new BubbleroidsSprite(world);
+      ship.shape.addPoint(0, -10);
+      ship.shape.addPoint(7, 10);
+      ship.shape.addPoint(-7, 10);
+
+      // Create shape for the photons.
+
+      photonShape = new Polygon();
+      photonShape.addPoint(1, 1);
+      photonShape.addPoint(1, -1);
+      photonShape.addPoint(-1, 1);
+      photonShape.addPoint(-1, -1);
+
+      // Create shape for the flying saucer.
+
+      ufo = new BubbleroidsSprite(world);
+      ufo.shape.addPoint(-15, 0);
+      ufo.shape.addPoint(-10, -5);
+      ufo.shape.addPoint(-5, -5);
+      ufo.shape.addPoint(-5, -9);
+      ufo.shape.addPoint(5, -9);
+      ufo.shape.addPoint(5, -5);
+      ufo.shape.addPoint(10, -5);
+      ufo.shape.addPoint(15, 0);
+      ufo.shape.addPoint(10, 5);
+      ufo.shape.addPoint(-10, 5);
+
+      // Create shape for the guided missile.
+
+      missile = new BubbleroidsSprite(world);
+      missile.shape.addPoint(0, -4);
+      missile.shape.addPoint(1, -3);
+      missile.shape.addPoint(1, 3);
+      missile.shape.addPoint(2, 4);
+      missile.shape.addPoint(-2, 4);
+      missile.shape.addPoint(-1, 3);
+      missile.shape.addPoint(-1, -3);
+
+      // Create the photon, bubbleroid and explosion stores.
+
+      photons           = new BubbleroidsEntities(world, config.shots);
+      bubbleroids       = new BubbleroidsEntities(world, config.bubbleCapacity());
+      explosions        = new BubbleroidsEntities(world, config.scrap);
+      bubbleroidIsSmall = new boolean[bubbleroids.capacity];
+      bubbleroidColor   = new int[bubbleroids.capacity];
+      explosionShape    = new int[4 * explosions.capacity];
+      explosionColor    = new Color[explosions.capacity];
+      explosionFade     = new Color[explosions.capacity][];
+
+      // The ship, flying saucer and missile are white, and so is their debris as it starts to
+      // fade.
+
+      ship.fade    = fade(Color.white);
+      ufo.fade     = ship.fade;
+      missile.fade = ship.fade;
+
+      // Create the scratch sprite for exploding bubbleroids.
+
+      bubbleroidSprite = new BubbleroidsSprite(world);
+
+      highScore = 0;
+   }
+
+
+   // Methods:
+
+   public void initGame()
+   {
+      // Start a game from the configured seed, or a fresh one if there is none.
+
+      initGame((config.seed != 0) ? config.seed : BubbleroidsRandom.freshSeed());
+   }
+
+
+   public void initGame(long seed)
+   {
+      // Initialize game data and sprites. Everything random in the game comes from the seed, so
+      // the same seed and input play the game out the same way.
+
+      this.seed = seed;
+      random.setSeed(seed);
+      score            = 0;
+      shipsLeft        = MAX_SHIPS;
+      bubbleroidsSpeed = MIN_BUBBLE_SPEED;
+      newShipScore     = NEW_SHIP_POINTS;
+      newUfoScore      = NEW_UFO_POINTS;
+      initShip();
+      initPhotons();
+      stopUfo();
+      stopMissile();
+      initBubbleroids();
+      initExplosions();
+      playing = true;
+   }
+
+
+   public void endGame()
+   {
+      // Stop ship, flying saucer and guided missile.
+
+      playing = false;
+      stopShip();
+      stopUfo();
+      stopMissile();
+   }
+
+
+   public void step(int input)
+   {
+      // Advance the game by one tick using the given input flags, recording them while a game
+      // is being played.
+
+      if ((recording != null) && playing)
+      {
+         recording.record(input);
+      }
+      sounds = 0;
+      left   = (input & LEFT) != 0;
+      right  = (input & RIGHT) != 0;
+      up     = (input & UP) != 0;
+      down   = (input & DOWN) != 0;
+
+      // Fire a photon, warp into hyperspace or launch the UFO if asked to.
+
+      if ((input & FIRE) != 0)
+      {
+         firePhoton();
+      }
+      if ((input & HYPERSPACE) != 0)
+      {
+         hyperspace();
+      }
+      if ((input & LAUNCH_UFO) != 0)
+      {
+         launchUfo();
+      }
+
+      // Move and process all sprites.
+
+      updateShip();
+      updatePhotons();
+      updateUfo();
+      updateMissile();
+      updateBubbleroids();
+      updateExplosions();
+
+      // Check the score and advance high score, add a new ship or start the flying
+      // saucer as necessary.
+
+      if (score > highScore)
+      {
+         highScore = score;
+      }
+      if (score > newShipScore)
+      {
+         newShipScore += NEW_SHIP_POINTS;
+         shipsLeft++;
+      }
+      if (playing && (score > newUfoScore) && !ufo.active)
+      {
+         newUfoScore  += NEW_UFO_POINTS;
+         ufoPassesLeft = UFO_PASSES;
+         initUfo();
+      }
+
+      // If all bubbleroids have been destroyed create a new batch.
+
+      if (bubbleroidsLeft <= 0)
+      {
+         if (--bubbleroidsCounter <= 0)
+         {
+            initBubbleroids();
+         }
+      }
+
+      // Thrusters sound while the up or down key is held.
+
+      thrustersPlaying = (up || down) && ship.active;
+
+      // Close the recording when the game is over.
+
+      if ((recording != null) && !playing)
+      {
+         recording.finish(this);
+      }
+   }
+
+
+   public void initShip()
+   {
+      ship.active     = true;
+      ship.angle      = 0.0;
+      ship.deltaAngle = 0.0;
+      ship.currentX   = 0.0;
+      ship.currentY   = 0.0;
+      ship.deltaX     = 0.0;
+      ship.deltaY     = 0.0;
+      ship.render();
+      thrustersPlaying = false;
+
+      hyperCounter = 0;
+   }
+
+
+   public void updateShip()
+   {
+      double dx, dy, limit;
+
+      if (!playing)
+      {
+         return;
+      }
+
+      // Rotate the ship if left or right cursor key is down.
+
+      if (left)
+      {
+         ship.angle += Math.PI / 16.0;
+         if (ship.angle > 2 * Math.PI)
+         {
+            ship.angle -= 2 * Math.PI;
+         }
+      }
+      if (right)
+      {
+         ship.angle -= Math.PI / 16.0;
+         if (ship.angle < 0)
+         {
+            ship.angle += 2 * Math.PI;
+         }
+      }
+
+      // Fire thrusters if up or down cursor key is down. Don't let ship go past
+      // the speed limit.
+
+      dx    = -Math.sin(ship.angle);
+      dy    = Math.cos(ship.angle);
+      limit = 0.8 * MIN_BUBBLE_SIZE;
+      if (up)
+      {
+         if ((ship.deltaX + dx > -limit) && (ship.deltaX + dx < limit))
+         {
+            ship.deltaX += dx;
+         }
+         if ((ship.deltaY + dy > -limit) && (ship.deltaY + dy < limit))
+         {
+            ship.deltaY += dy;
+         }
+      }
+      if (down)
+      {
+         if ((ship.deltaX - dx > -limit) && (ship.deltaX - dx < limit))
+         {
+            ship.deltaX -= dx;
+         }
+         if ((ship.deltaY - dy > -limit) && (ship.deltaY - dy < limit))
+         {
+            ship.deltaY -= dy;
+         }
+      }
+
+      // Move the ship. If it is currently in hyperspace, advance the countdown.
+
+      if (ship.active)
+      {
+         ship.advance();
+         ship.render();
+         if (hyperCounter > 0)
+         {
+            hyperCounter--;
+         }
+      }
+
+      // Ship is exploding, advance the countdown or create a new ship if it is
+      // done exploding. The new ship is added as though it were in hyperspace.
+      // (This gives the player time to move the ship if it is in imminent danger.)
+      // If that was the last ship, end the game.
+
+      else
+      if (--shipCounter <= 0)
+      {
+         if (shipsLeft > 0)
+         {
+            initShip();
+            hyperCounter = HYPER_COUNT;
+         }
+         else
+         {
+            endGame();
+         }
+      }
+   }
+
+
+   public void stopShip()
+   {
+      ship.active = false;
+      shipCounter = SCRAP_COUNT;
+      if (shipsLeft > 0)
+      {
+         shipsLeft--;
+      }
+      thrustersPlaying = false;
+   }
+
+
+   public void hyperspace()
+   {
+      // Warp ship into hyperspace by moving to a random location and starting counter.
+
+      if (ship.active && (hyperCounter <= 0))
+      {
+         ship.currentX = (random.nextDouble() * world.width) - world.width2;
+         ship.currentY = (random.nextDouble() * world.height) - world.height2;
+         hyperCounter  = HYPER_COUNT;
+         sounds       |= WARP_SOUND;
+      }
+   }
+
+
+   public void initPhotons()
+   {
+      photons.clear();
+   }
+
+
+   public void firePhoton()
+   {
+      int i;
+
+      // Fire a photon from the ship and start its counter. If all photons are in flight,
+      // the oldest one is reused.
+
+      if (!ship.active)
+      {
+         return;
+      }
+      sounds |= FIRE_SOUND;
+      i = photons.allocate(true);
+      photons.currentX[i] = ship.currentX;
+      photons.currentY[i] = ship.currentY;
+      photons.deltaX[i]   = MIN_BUBBLE_SIZE * -Math.sin(ship.angle);
+      photons.deltaY[i]   = MIN_BUBBLE_SIZE * Math.cos(ship.angle);
+      photons.counter[i]  = Math.min(world.width, world.height) / MIN_BUBBLE_SIZE;
+   }
+
+
+   public void updatePhotons()
+   {
+      // Move any active photons. Stop them when their counters have expired.
+
+      photons.advance();
+      photons.expire();
+   }
+
+
+   public boolean isHitByPhoton(BubbleroidsSprite s, int i)
+   {
+      // Test a polygon sprite against a photon, treating the photon as a small circle.
+
+      return(s.isTouchingCircle(photons.currentX[i] + world.width2,
+                                photons.currentY[i] + world.height2, PHOTON_RADIUS));
+   }
+
+
+   public void launchUfo()
+   {
+      // Launch the flying saucer on demand.
+
+      if (ship.active && !ufo.active)
+      {
+         newUfoScore  += NEW_UFO_POINTS;
+         ufoPassesLeft = UFO_PASSES;
+         initUfo();
+      }
+   }
+
+
+   public void initUfo()
+   {
+      // Randomly set flying saucer at left or right edge of the screen.
+
+      ufo.active   = true;
+      ufo.currentX = -world.width / 2;
+      ufo.currentY = random.nextDouble() * world.height;
+      ufo.deltaX   = MIN_BUBBLE_SPEED + random.nextDouble() * (MAX_BUBBLE_SPEED - MIN_BUBBLE_SPEED);
+      if (random.nextDouble() < 0.5)
+      {
+         ufo.deltaX   = -ufo.deltaX;
+         ufo.currentX = world.width / 2;
+      }
+      ufo.deltaY = MIN_BUBBLE_SPEED + random.nextDouble() * (MAX_BUBBLE_SPEED - MIN_BUBBLE_SPEED);
+      if (random.nextDouble() < 0.5)
+      {
+         ufo.deltaY = -ufo.deltaY;
+      }
+      ufo.render();
+      saucerPlaying = true;
+
+      // Set counter for this pass.
+
+      ufoCounter = (int)Math.floor(world.width / Math.abs(ufo.deltaX));
+   }
+
+
+   public void updateUfo()
+   {
+      int i, d;
+
+      // Move the flying saucer and check for collision with a photon. Stop it when its
+      // counter has expired.
+
+      if (ufo.active)
+      {
+         ufo.advance();
+         ufo.render();
+         if (--ufoCounter <= 0)
+         {
+            if (--ufoPassesLeft > 0)
+            {
+               initUfo();
+            }
+            else
+            {
+               stopUfo();
+            }
+         }
+         else
+         {
+            for (i = 0; i < photons.size; i++)
+            {
+               if (photons.active[i] && isHitByPhoton(ufo, i))
+               {
+                  sounds |= CRASH_SOUND;
+                  explode(ufo);
+                  stopUfo();
+                  score += UFO_POINTS;
+               }
+            }
+
+            // On occassion, fire a missile at the ship if the saucer is not
+            // too close to it.
+
+            d = (int)Math.max(Math.abs(ufo.currentX - ship.currentX), Math.abs(ufo.currentY - ship.currentY));
+            if (ship.active && (hyperCounter <= 0) && ufo.active && !missile.active &&
+                (d > 4 * MAX_BUBBLE_SIZE) && (random.nextDouble() < .03))
+            {
+               initMissile();
+            }
+         }
+      }
+   }
+
+
+   public void stopUfo()
+   {
+      ufo.active    = false;
+      ufoCounter    = 0;
+      ufoPassesLeft = 0;
+      saucerPlaying = false;
+   }
+
+
+   public void initMissile()
+   {
+      missile.active     = true;
+      missile.angle      = 0.0;
+      missile.deltaAngle = 0.0;
+      missile.currentX   = ufo.currentX;
+      missile.currentY   = ufo.currentY;
+      missile.deltaX     = 0.0;
+      missile.deltaY     = 0.0;
+      missile.render();
+      missileCounter = 3 * Math.max(world.width, world.height) / MIN_BUBBLE_SIZE;
+      missilePlaying = true;
+   }
+
+
+   public void updateMissile()
+   {
+      int i;
+
+      // Move the guided missile and check for collision with ship or photon. Stop it when its
+      // counter has expired.
+
+      if (missile.active)
+      {
+         if (--missileCounter <= 0)
+         {
+            stopMissile();
+         }
+         else
+         {
+            guideMissile();
+            missile.advance();
+            missile.render();
+            for (i = 0; i < photons.size; i++)
+            {
+               if (photons.active[i] && isHitByPhoton(missile, i))
+               {
+                  sounds |= CRASH_SOUND;
+                  explode(missile);
+                  stopMissile();
+                  score += MISSLE_POINTS;
+               }
+            }
+            if (missile.active && ship.active && (hyperCounter <= 0) && ship.isColliding(missile))
+            {
+               sounds |= CRASH_SOUND;
+               explode(ship);
+               stopShip();
+               stopUfo();
+               stopMissile();
+            }
+         }
+      }
+   }
+
+
+   public void guideMissile()
+   {
+      double dx, dy, angle;
+
+      if (!ship.active || (hyperCounter > 0))
+      {
+         return;
+      }
+
+      // Find the angle needed to hit the ship.
+
+      dx = ship.currentX - missile.currentX;
+      dy = ship.currentY - missile.currentY;
+      if ((dx == 0) && (dy == 0))
+      {
+         angle = 0;
+      }
+      if (dx == 0)
+      {
+         if (dy < 0)
+         {
+            angle = -Math.PI / 2;
+         }
+         else
+         {
+            angle = Math.PI / 2;
+         }
+      }
+      else
+      {
+         angle = Math.atan(Math.abs(dy / dx));
+         if (dy > 0)
+         {
+            angle = -angle;
+         }
+         if (dx < 0)
+         {
+            angle = Math.PI - angle;
+         }
+      }
+
+      // Adjust angle for screen coordinates.
+
+      missile.angle = angle - Math.PI / 2;
+
+      // Change the missile's angle so that it points toward the ship.
+
+      missile.deltaX = MIN_BUBBLE_SIZE / 3 * -Math.sin(missile.angle);
+      missile.deltaY = MIN_BUBBLE_SIZE / 3 * Math.cos(missile.angle);
+   }
+
+
+   public void stopMissile()
+   {
+      missile.active = false;
+      missileCounter = 0;
+      missilePlaying = false;
+   }
+
+
+   public void initBubbleroids()
+   {
+      int    i, j, n;
+      double r, x, y, dx, dy;
+
+      // Create shapes, positions and movements for each bubbleroid. In a storm, there are many
+      // more of them and they are scattered over the whole screen, overlapping or not.
+
+      bubbleroids.clear();
+      bubbleroidsLeft = 0;
+      for (n = 0; n < ((config.storm > 0) ? config.storm : config.bubbles); n++)
+      {
+         // Choose a size for the bubbleroid.
+
+         r = MIN_BUBBLE_SIZE + (int)(random.nextDouble() * (MAX_BUBBLE_SIZE - MIN_BUBBLE_SIZE));
+
+         // Place the bubbleroid at one edge of the screen, or anywhere in a storm.
+
+         if (config.storm > 0)
+         {
+            x = random.nextDouble() * world.width - world.width2;
+            y = random.nextDouble() * world.height - world.height2;
+         }
+         else if (random.nextDouble() < 0.5)
+         {
+            x = -world.width / 2;
+            if (random.nextDouble() < 0.5)
+            {
+               x = world.width / 2;
+            }
+            y = random.nextDouble() * world.height;
+         }
+         else
+         {
+            x = random.nextDouble() * world.width;
+            y = -world.height / 2;
+            if (random.nextDouble() < 0.5)
+            {
+               y = world.height / 2;
+            }
+         }
+
+
+         // Do not allow bubbleroids to overlap.
+
+         for (j = 0; (config.storm == 0) && (j < bubbleroids.size); j++)
+         {
+            if (bubbleroids.active[j])
+            {
+               dx = x - bubbleroids.currentX[j];
+               dy = y - bubbleroids.currentY[j];
+               if (Math.sqrt((dx * dx) + (dy * dy)) <= (r + bubbleroids.radius[j]))
+               {
+                  break;
+               }
+            }
+         }
+         if ((config.storm == 0) && (j < bubbleroids.size)) { continue; }
+
+         i = bubbleroids.allocate(false);
+         bubbleroids.radius[i]   = r;
+         bubbleroids.currentX[i] = x;
+         bubbleroids.currentY[i] = y;
+
+         // Choose bubble color, a shade of red and one of green.
+
+         bubbleroidColor[i] = BUBBLE_SHADES * (int)(random.nextDouble() * BUBBLE_SHADES);
+         bubbleroidColor[i] += (int)(random.nextDouble() * BUBBLE_SHADES);
+
+         // Set a random motion for the bubbleroid.
+
+         bubbleroids.deltaX[i] = random.nextDouble() * bubbleroidsSpeed;
+         if (random.nextDouble() < 0.5)
+         {
+            bubbleroids.deltaX[i] = -bubbleroids.deltaX[i];
+         }
+         bubbleroids.deltaY[i] = random.nextDouble() * bubbleroidsSpeed;
+         if (random.nextDouble() < 0.5)
+         {
+            bubbleroids.deltaY[i] = -bubbleroids.deltaY[i];
+         }
+
+         bubbleroidIsSmall[i] = false;
+
+         bubbleroidsLeft++;
+      }
+
+      bubbleroidsCounter = STORM_PAUSE;
+      if (bubbleroidsSpeed < MAX_BUBBLE_SPEED)
+      {
+         bubbleroidsSpeed++;
+      }
+   }
+
+
+   public void initSmallBubbleroids(int n)
+   {
+      int    count;
+      int    i;
+      double tempX, tempY;
+      int    color;
+
+      // Create one or two smaller bubbleroids from a larger one using free bubbleroid slots. The new
+      // bubbleroids will be placed in the same position as the old one but will have a new, smaller
+      // shape and new, randomly generated movements.
+
+      tempX = bubbleroids.currentX[n];
+      tempY = bubbleroids.currentY[n];
+      color = bubbleroidColor[n];
+      for (count = 0; count < 2; count++)
+      {
+         i = bubbleroids.allocate(false);
+         if (i < 0)
+         {
+            break;
+         }
+         bubbleroids.radius[i]   = (MIN_BUBBLE_SIZE + (int)(random.nextDouble() * (MAX_BUBBLE_SIZE - MIN_BUBBLE_SIZE))) / 2;
+         bubbleroids.currentX[i] = tempX;
+         bubbleroids.currentY[i] = tempY;
+         bubbleroids.deltaX[i]   = random.nextDouble() * 2 * bubbleroidsSpeed - bubbleroidsSpeed;
+         bubbleroids.deltaY[i]   = random.nextDouble() * 2 * bubbleroidsSpeed - bubbleroidsSpeed;
+         bubbleroidColor[i]      = color;
+         bubbleroidIsSmall[i]    = true;
+         bubbleroidsLeft++;
+      }
+   }
+
+
+   public Polygon bubbleroidShape(int r)
+   {
+      int    j;
+      double theta;
+
+      // Return the circular shape for a bubbleroid of the given radius, creating it the first
+      // time it is asked for.
+
+      if (bubbleroidShapes[r] == null)
+      {
+         bubbleroidShapes[r] = new Polygon();
+         for (j = 0; j < config.sides; j++)
+         {
+            theta = 2 * Math.PI / config.sides * j;
+            bubbleroidShapes[r].addPoint((int)-Math.round(r * Math.sin(theta)), (int)Math.round(r * Math.cos(theta)));
+         }
+      }
+      return(bubbleroidShapes[r]);
+   }
+
+
+   public BubbleroidsSprite bubbleroid(int i)
+   {
+      // Copy a bubbleroid into the scratch bubbleroid sprite so it can be exploded.
+
+      bubbleroidSprite.shape    = bubbleroidShape((int)bubbleroids.radius[i]);
+      bubbleroidSprite.radius   = bubbleroids.radius[i];
+      bubbleroidSprite.angle    = bubbleroids.angle[i];
+      bubbleroidSprite.currentX = bubbleroids.currentX[i];
+      bubbleroidSprite.currentY = bubbleroids.currentY[i];
+      bubbleroidSprite.color    = BUBBLE_COLORS[bubbleroidColor[i]];
+      bubbleroidSprite.fade     = BUBBLE_FADES[bubbleroidColor[i]];
+      return(bubbleroidSprite);
+   }
+
+
+   public void updateBubbleroids()
+   {
+      int       i, j;
+      double[]  x, y, radius;
+      boolean[] active;
+
+      // Bounce bubbleroids off of each other and the walls, then move them.
+
+      bounceBubbleroids();
+      bubbleroids.advance();
+
+      // Check active bubbleroids for other collisions. Bubbleroids are tested as circles.
+
+      x      = bubbleroids.currentX;
+      y      = bubbleroids.currentY;
+      radius = bubbleroids.radius;
+      active = bubbleroids.active;
+      for (i = 0; i < bubbleroids.size; i++)
+      {
+         if (active[i])
+         {
+            // If hit by photon, kill bubbleroid and advance score. If bubbleroid is large,
+            // make some smaller ones to replace it.
+
+            for (j = 0; j < photons.size; j++)
+            {
+               if (photons.active[j] && active[i] &&
+                   BubbleroidsSprite.circlesTouch(x[i], y[i], radius[i], photons.currentX[j], photons.currentY[j], PHOTON_RADIUS))
+               {
+                  bubbleroidsLeft--;
+                  bubbleroids.release(i);
+                  photons.release(j);
+                  sounds |= EXPLOSION_SOUND;
+                  explode(bubbleroid(i));
+                  if (!bubbleroidIsSmall[i])
+                  {
+                     score += BIG_POINTS;
+                     initSmallBubbleroids(i);
+                  }
+                  else
+                  {
+                     score += SMALL_POINTS;
+                  }
+               }
+            }
+
+            // If the ship is not in hyperspace, see if it is hit.
+
+            if (ship.active && (hyperCounter <= 0) && active[i] &&
+                ship.isTouchingCircle(x[i] + world.width2, y[i] + world.height2, radius[i]))
+            {
+               sounds |= CRASH_SOUND;
+               explode(ship);
+               stopShip();
+               stopUfo();
+               stopMissile();
+            }
+         }
+      }
+   }
+
+
+   public void bounceBubbleroids()
+   {
+      int       i, j, k, m, n;
+      int[]     live;
+      double    dx, dy, d1, d2, speed;
+      double[]  x, y, vx, vy, radius;
+      boolean[] active;
+
+      x      = bubbleroids.currentX;
+      y      = bubbleroids.currentY;
+      vx     = bubbleroids.deltaX;
+      vy     = bubbleroids.deltaY;
+      radius = bubbleroids.radius;
+      active = bubbleroids.active;
+      n      = bubbleroids.size;
+      live   = bubbleroids.live();
+
+      // Sort the bubbleroids into a grid. Pairs are tested on where they will be after this move,
+      // and bounces swap velocities, so the cells must be big enough for two of the largest
+      // bubbleroids moving toward each other at the highest speed of any of them.
+
+      speed = 0.0;
+      for (k = 0; k < bubbleroids.count; k++)
+      {
+         i     = live[k];
+         speed = Math.max(speed, Math.max(Math.abs(vx[i]), Math.abs(vy[i])));
+      }
+      bubbleroidsGrid.build(bubbleroids, 2 * MAX_BUBBLE_SIZE + 2 * speed);
+
+      // Bounce colliding bubbleroids which are also moving toward each other. Pairs are taken in
+      // the same order as testing every pair would, so the bounces come out the same.
+
+      for (i = 0; i < n; i++)
+      {
+         if (active[i])
+         {
+            m = bubbleroidsGrid.nearby(i);
+            for (k = 0; k < m; k++)
+            {
+               j  = bubbleroidsGrid.found[k];
+               d2 = radius[i] + radius[j];
+               dx = (x[i] + vx[i]) - (x[j] + vx[j]);
+               if (Math.abs(dx) > d2) { continue; }
+               dy = (y[i] - vy[i]) - (y[j] - vy[j]);
+               if (Math.abs(dy) > d2) { continue; }
+               d1 = Math.sqrt((dx * dx) + (dy * dy));
+               if (d1 <= d2)
+               {
+                  dx = x[i] - x[j];
+                  dy = y[i] - y[j];
+                  d2 = Math.sqrt((dx * dx) + (dy * dy));
+                  if (d1 < d2)
+                  {
+                     dx    = vx[i];
+                     dy    = vy[i];
+                     vx[i] = vx[j];
+                     vy[i] = vy[j];
+                     vx[j] = dx;
+                     vy[j] = dy;
+                  }
+               }
+            }
+         }
+      }
+
+      // Bounce bubbleroids off of walls.
+
+      for (k = 0; k < bubbleroids.count; k++)
+      {
+         i  = live[k];
+         dx = x[i] + vx[i];
+         if (((dx + radius[i]) >= (double)(world.width2)) && (vx[i] > 0.0))
+         {
+            vx[i] = -vx[i];
+         }
+         else if (((dx - radius[i]) <= (double)(-world.width2)) && (vx[i] < 0.0))
+         {
+            vx[i] = -vx[i];
+         }
+         dy = y[i] - vy[i];
+         if (((dy + radius[i]) >= (double)(world.height2)) && (vy[i] < 0.0))
+         {
+            vy[i] = -vy[i];
+         }
+         else if (((dy - radius[i]) <= (double)(-world.height2)) && (vy[i] > 0.0))
+         {
+            vy[i] = -vy[i];
+         }
+      }
+   }
+
+
+   public void initExplosions()
+   {
+      explosions.clear();
+   }
+
+
+   public void explode(BubbleroidsSprite s)
+   {
+      int i, j, k;
+
+      // Create debris for explosion animation. The each individual line segment of the given sprite
+      // is used to create a new piece of debris that will move outward  from the sprite's original
+      // position with a random rotation. If there is no room left, the oldest debris is reused.
+      // Every segment makes a piece whatever the detail setting of the view, which only changes
+      // how much of it is drawn, so the random numbers drawn and the game played do not depend
+      // on it.
+
+      for (i = 0; i < s.shape.npoints; i++)
+      {
+         k = explosions.allocate(true);
+         j = i + 1;
+         if (j >= s.shape.npoints)
+         {
+            j -= s.shape.npoints;
+         }
+         explosionShape[4 * k]       = s.shape.xpoints[i];
+         explosionShape[4 * k + 1]   = s.shape.ypoints[i];
+         explosionShape[4 * k + 2]   = s.shape.xpoints[j];
+         explosionShape[4 * k + 3]   = s.shape.ypoints[j];
+         explosions.angle[k]         = s.angle;
+         explosions.deltaAngle[k]    = (random.nextDouble() * 2 * Math.PI - Math.PI) / 15;
+         explosions.currentX[k]      = s.currentX;
+         explosions.currentY[k]      = s.currentY;
+         explosions.deltaX[k]        = -s.shape.xpoints[i] / 5;
+         explosions.deltaY[k]        = -s.shape.ypoints[i] / 5;
+         explosions.counter[k]       = SCRAP_COUNT;
+         explosionColor[k]           = s.color;
+         explosionFade[k]            = s.fade;
+      }
+   }
+
+
+   public void updateExplosions()
+   {
+      // Move any active explosion debris. Stop debris when its counter has expired.
+
+      explosions.advance();
+      explosions.expire();
+   }
+
+
+   public ByteBuffer snapshot()
+   {
+      ByteBuffer b = ByteBuffer.allocate(snapshotSize());
+
+      // Save the game into a new buffer, ready to be read back.
+
+      save(b);
+      b.flip();
+      return(b);
+   }
+
+
+   public BubbleroidsGame fork()
+   {
+      BubbleroidsGame game = new BubbleroidsGame(world.width, world.height, config);
+
+      // Create a game in the same state as this one, which can then play out on its own.
+
+      game.restore(snapshot());
+      return(game);
+   }
+
+
+   public int snapshotSize()
+   {
+      // Most bytes save() writes.
+
+      return(256 + ship.saveSize() + ufo.saveSize() + missile.saveSize() +
+             photons.saveSize() + bubbleroids.saveSize() + explosions.saveSize() +
+             bubbleroids.capacity * 2 + explosions.capacity * 20);
+   }
+
+
+   public void save(ByteBuffer b)
+   {
+      int i;
+
+      // Write a header the restoring game can check it fits, then everything that changes as
+      // the game is played. The shapes, grid and scratch sprite are rebuilt as needed.
+
+      b.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION);
+      b.putInt(world.width).putInt(world.height);
+      b.putInt(photons.capacity).putInt(bubbleroids.capacity).putInt(explosions.capacity).putInt(config.sides);
+      saveValues(b);
+      ship.save(b);
+      ufo.save(b);
+      missile.save(b);
+      photons.save(b);
+      bubbleroids.save(b);
+      for (i = 0; i < bubbleroids.size; i++)
+      {
+         saveBubbleroid(b, i);
+      }
+      explosions.save(b);
+      for (i = 0; i < explosions.size; i++)
+      {
+         saveDebris(b, i);
+      }
+   }
+
+
+   public void restore(ByteBuffer b)
+   {
+      int i;
+
+      if ((b.getInt() != SNAPSHOT_MAGIC) || (b.getInt() != SNAPSHOT_VERSION))
+      {
+         throw new IllegalArgumentException("Not a Bubbleroids snapshot");
+      }
+      if ((b.getInt() != world.width) || (b.getInt() != world.height) ||
+          (b.getInt() != photons.capacity) || (b.getInt() != bubbleroids.capacity) ||
+          (b.getInt() != explosions.capacity) || (b.getInt() != config.sides))
+      {
+         throw new IllegalArgumentException("Snapshot is of a game with a different screen size or limits");
+      }
+      restoreValues(b);
+      ship.restore(b);
+      ufo.restore(b);
+      missile.restore(b);
+      photons.restore(b);
+      bubbleroids.restore(b);
+      for (i = 0; i < bubbleroids.size; i++)
+      {
+         restoreBubbleroid(b, i);
+      }
+      explosions.restore(b);
+      for (i = 0; i < explosions.size; i++)
+      {
+         restoreDebris(b, i);
+      }
+   }
+
+
+   public void saveValues(ByteBuffer b)
+   {
+      // Write the seed, random state, scores, counters and flags.
+
+      b.putLong(seed).putLong(random.state);
+      b.putInt(score).putInt(highScore).putInt(newShipScore).putInt(newUfoScore);
+      b.put((byte)(playing ? 1 : 0));
+      b.putInt(shipsLeft).putInt(shipCounter).putInt(hyperCounter);
+      b.putInt(ufoPassesLeft).putInt(ufoCounter).putInt(missileCounter);
+      b.putInt(bubbleroidsCounter).putInt(bubbleroidsSpeed).putInt(bubbleroidsLeft);
+      b.putInt(sounds);
+      b.put((byte)((thrustersPlaying ? 1 : 0) | (saucerPlaying ? 2 : 0) | (missilePlaying ? 4 : 0)));
+   }
+
+
+   public void restoreValues(ByteBuffer b)
+   {
+      int flags;
+
+      seed = b.getLong();
+      random.setSeed(b.getLong());
+      score              = b.getInt();
+      highScore          = b.getInt();
+      newShipScore       = b.getInt();
+      newUfoScore        = b.getInt();
+      playing            = (b.get() != 0);
+      shipsLeft          = b.getInt();
+      shipCounter        = b.getInt();
+      hyperCounter       = b.getInt();
+      ufoPassesLeft      = b.getInt();
+      ufoCounter         = b.getInt();
+      missileCounter     = b.getInt();
+      bubbleroidsCounter = b.getInt();
+      bubbleroidsSpeed   = b.getInt();
+      bubbleroidsLeft    = b.getInt();
+      sounds             = b.getInt();
+      flags              = b.get();
+      thrustersPlaying   = ((flags & 1) != 0);
+      saucerPlaying      = ((flags & 2) != 0);
+      missilePlaying     = ((flags & 4) != 0);
+   }
+
+
+   public void saveBubbleroid(ByteBuffer b, int i)
+   {
+      // Write the size flag and color of a bubbleroid slot.
+
+      b.put((byte)(bubbleroidIsSmall[i] ? 1 : 0));
+      b.put((byte)bubbleroidColor[i]);
+   }
+
+
+   public void restoreBubbleroid(ByteBuffer b, int i)
+   {
+      bubbleroidIsSmall[i] = (b.get() != 0);
+      bubbleroidColor[i]   = b.get();
+   }
+
+
+   public void saveDebris(ByteBuffer b, int i)
+   {
+      // Write the line segment and color of a piece of debris.
+
+      b.putInt(explosionShape[4 * i]).putInt(explosionShape[4 * i + 1]);
+      b.putInt(explosionShape[4 * i + 2]).putInt(explosionShape[4 * i + 3]);
+      b.putInt((explosionColor[i] == null) ? 0 : explosionColor[i].getRGB());
+   }
+
+
+   public void restoreDebris(ByteBuffer b, int i)
+   {
+      Color old = explosionColor[i];
+
+      explosionShape[4 * i]     = b.getInt();
+      explosionShape[4 * i + 1] = b.getInt();
+      explosionShape[4 * i + 2] = b.getInt();
+      explosionShape[4 * i + 3] = b.getInt();
+      explosionColor[i]         = color(b.getInt(), old);
+      if ((explosionColor[i] != old) || (explosionFade[i] == null))
+      {
+         explosionFade[i] = fade(explosionColor[i]);
+      }
+   }
+
+
+   static Color[] bubbleColors()
+   {
+      Color[] colors = new Color[BUBBLE_SHADES * BUBBLE_SHADES];
+      int     i;
+
+      // Bubbleroid colors, by shade of red and then of green.
+
+      for (i = 0; i < colors.length; i++)
+      {
+         colors[i] = new Color(255 * (i / BUBBLE_SHADES) / (BUBBLE_SHADES - 1),
+                               255 * (i % BUBBLE_SHADES) / (BUBBLE_SHADES - 1), 255);
+      }
+      return(colors);
+   }
+
+
+   static Color[][] bubbleFades()
+   {
+      Color[][] fades = new Color[BUBBLE_COLORS.length][];
+      int       i;
+
+      for (i = 0; i < fades.length; i++)
+      {
+         fades[i] = fade(BUBBLE_COLORS[i]);
+      }
+      return(fades);
+   }
+
+
+   static Color[] fade(Color color)
+   {
+      Color[] fade;
+      int     i, r, g, b;
+
+      // Colors debris of the given color is drawn in for each value of its counter, fading to
+      // black as it counts down.
+
+      if (color == null)
+      {
+         return(null);
+      }
+      fade = new Color[SCRAP_COUNT + 1];
+      r    = color.getRed() / SCRAP_COUNT;
+      g    = color.getGreen() / SCRAP_COUNT;
+      b    = color.getBlue() / SCRAP_COUNT;
+      for (i = 0; i <= SCRAP_COUNT; i++)
+      {
+         fade[i] = new Color(r * i, g * i, b * i);
+      }
+      return(fade);
+   }
+
+
+   static Color color(int rgb, Color old)
+   {
+      // Color for a saved RGB value, keeping the old one if it is the same.
+
+      if (rgb == 0)
+      {
+         return(null);
+      }
+      if ((old != null) && (old.getRGB() == rgb))
+      {
+         return(old);
+      }
+      return(new Color(rgb, true));
+   }
+}
@@ -0,0 +1,212 @@
+/************************************************************************************************
+*
+*  BubbleroidsGrid.java
+*
+************************************************************************************************/
+
+import java.util.*;
+
+/************************************************************************************************
+*  The BubbleroidsGrid class is a uniform grid over the screen used to find the pairs of objects
+*  in a BubbleroidsEntities store that are near each other, without testing every pair. Objects
+*  are sorted into square cells by position, so anything within one cell width of an object is in
+*  its own cell or one of the eight around it. Positions are wrapped onto the screen by
+*  BubbleroidsSprite.advance(), so the grid covers exactly the screen and objects just past an
+*  edge are kept in the edge cells.
+************************************************************************************************/
+
+class BubbleroidsGrid {
+   // Fields:
+
+   BubbleroidsWorld world;   // Playing area covered, as of the last build.
+
+   double cellSize;      // Width and height of a cell.
+   int    columns;       // Grid dimensions in cells.
+   int    rows;
+   int[]  cellStart;     // Index in cellItems of the first object in each cell.
+   int[]  cellItems;     // Objects sorted by cell.
+   int[]  itemCell;      // Cell of each object, or -1 if not active.
+   int    items;         // Number of slots in itemCell in use.
+   int[]  cellMark;      // Cells around the current object in nearby(), marked with mark.
+   int    mark;
+   int[]  found;         // Objects found near an object by nearby().
+   int[]  mergeNext;     // Next and end positions in cellItems of the cells nearby() merges.
+   int[]  mergeEnd;
+
+   // Constructors:
+
+   public BubbleroidsGrid()
+   {
+      this.cellStart = new int[1];
+      this.cellItems = new int[0];
+      this.itemCell  = new int[0];
+      this.cellMark  = new int[1];
+      this.found     = new int[16];
+      this.mergeNext = new int[9];
+      this.mergeEnd  = new int[9];
+   }
+
+
+   // Methods:
+
+   public void build(BubbleroidsEntities e, double size)
+   {
+      int i, c, cells;
+
+      // Size the grid so no cell is smaller than the given size.
+
+      cellSize = size;
+      world    = e.world;
+      columns  = Math.max(1, (int)(world.width / size));
+      rows     = Math.max(1, (int)(world.height / size));
+      cells    = columns * rows;
+      if (cellStart.length < cells + 1)
+      {
+         cellStart = new int[cells + 1];
+         cellMark  = new int[cells];
+         mark      = 0;
+      }
+      items = e.size;
+      if (itemCell.length < e.capacity)
+      {
+         itemCell  = new int[e.capacity];
+         cellItems = new int[e.capacity];
+      }
+
+      // Count the active objects in each cell, then sort them into cells.
+
+      for (c = 0; c <= cells; c++)
+      {
+         cellStart[c] = 0;
+      }
+      for (i = 0; i < e.size; i++)
+      {
+         if (e.active[i])
+         {
+            c           = cell(e.currentX[i], e.currentY[i]);
+            itemCell[i] = c;
+            cellStart[c + 1]++;
+         }
+         else
+         {
+            itemCell[i] = -1;
+         }
+      }
+      for (c = 0; c < cells; c++)
+      {
+         cellStart[c + 1] += cellStart[c];
+      }
+      for (i = 0; i < e.size; i++)
+      {
+         if (itemCell[i] >= 0)
+         {
+            cellItems[cellStart[itemCell[i]]++] = i;
+         }
+      }
+
+      // Filling the cells moved each start to the start of the next cell, so shift them back.
+
+      for (c = cells; c > 0; c--)
+      {
+         cellStart[c] = cellStart[c - 1];
+      }
+      cellStart[0] = 0;
+   }
+
+
+   public int nearby(int i)
+   {
+      int c, col, row, x, y, k, n, lists, lo, hi, mid, best, total;
+
+      // Put the objects after i in the cells around object i into found[], in increasing order,
+      // and return how many there are. Each cell is already in index order, so find where the
+      // objects after i start in each of them and merge the cells.
+
+      lists = 0;
+      total = 0;
+      mark++;
+      col   = itemCell[i] % columns;
+      row   = itemCell[i] / columns;
+      for (y = Math.max(0, row - 1); y <= Math.min(rows - 1, row + 1); y++)
+      {
+         for (x = Math.max(0, col - 1); x <= Math.min(columns - 1, col + 1); x++)
+         {
+            c           = y * columns + x;
+            cellMark[c] = mark;
+            lo          = cellStart[c];
+            hi = cellStart[c + 1];
+            while (lo < hi)
+            {
+               mid = (lo + hi) >>> 1;
+               if (cellItems[mid] > i)
+               {
+                  hi = mid;
+               }
+               else
+               {
+                  lo = mid + 1;
+               }
+            }
+            if (lo < cellStart[c + 1])
+            {
+               mergeNext[lists]  = lo;
+               mergeEnd[lists++] = cellStart[c + 1];
+               total            += cellStart[c + 1] - lo;
+            }
+         }
+      }
+      n = 0;
+      if (total > found.length)
+      {
+         found = Arrays.copyOf(found, Math.max(2 * found.length, total));
+      }
+
+      // When the cells are crowded, as in a storm, most of the objects after i are nearby anyway,
+      // and it is quicker to walk them in order and keep those in the marked cells.
+
+      if (total * lists > items - i)
+      {
+         for (k = i + 1; k < items; k++)
+         {
+            if ((itemCell[k] >= 0) && (cellMark[itemCell[k]] == mark))
+            {
+               found[n++] = k;
+            }
+         }
+         return(n);
+      }
+      while (lists > 0)
+      {
+         best = 0;
+         for (k = 1; k < lists; k++)
+         {
+            if (cellItems[mergeNext[k]] < cellItems[mergeNext[best]])
+            {
+               best = k;
+            }
+         }
+         found[n++] = cellItems[mergeNext[best]++];
+         if (mergeNext[best] == mergeEnd[best])
+         {
+            lists--;
+            mergeNext[best] = mergeNext[lists];
+            mergeEnd[best]  = mergeEnd[lists];
+         }
+      }
+      return(n);
+   }
+
+
+   int cell(double x, double y)
+   {
+      int col, row;
+
+      // Map a screen position to its cell, keeping positions just off the screen in the edge cells.
+
+      col = (int)((x + world.width2) / cellSize);
+      row = (int)((y + world.height2) / cellSize);
+      col = Math.max(0, Math.min(columns - 1, col));
+      row = Math.max(0, Math.min(rows - 1, row));
+      return(row * columns + col);
+   }
+}
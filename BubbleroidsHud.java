@@ -0,0 +1,211 @@
+/************************************************************************************************
+*
+*  BubbleroidsHud.java
+*
+************************************************************************************************/
+
+import java.awt.*;
+
+/************************************************************************************************
+*  The BubbleroidsHud class draws the lines of text over the game, such as the score. The
+*  printable ASCII characters of the font are drawn once into an atlas image, and each line is
+*  kept as an image of its own, put together from the atlas only when its text changes. So most
+*  frames draw each line with one blit, without building strings or measuring them. Numbered
+*  lines are given as a label and a number, which are only turned into characters when the number
+*  changes.
+*
+*  Text is drawn character by character with whole pixel advances, which is how drawString()
+*  lays it out when fractional metrics and antialiasing are off, as they are by default.
+************************************************************************************************/
+
+class BubbleroidsHud {
+   // Constants.
+
+   static final int FIRST_CHAR = 32;   // Characters in the atlas. Others are drawn as '?'.
+   static final int LAST_CHAR  = 126;
+
+   static final Color CLEAR = new Color(0, 0, 0, 0);
+
+   // Fields:
+
+   Component component;   // Component the images are made compatible with, or null.
+   Image     atlas;       // Characters side by side, one cell each.
+   int[]     advance;     // Width of each character in the atlas.
+   int       cell;        // Width and height of a cell, and the height of the baseline in it.
+   int       height;
+   int       ascent;
+
+   Image[]  images;       // Image and width of each line.
+   int[]    widths;
+   String[] texts;        // Text, or label and number, the image of each line shows.
+   String[] labels;
+   int[]    numbers;
+   char[]   chars;        // Scratch space for the characters of a line.
+
+   // Constructors:
+
+   public BubbleroidsHud(Component component, Font font, int lines)
+   {
+      Graphics    g;
+      FontMetrics fm;
+      int         c;
+
+      // Draw the characters of the font in white into the atlas.
+
+      this.component = component;
+      g              = BubbleroidsScreen.createImage(component, 1, 1, true).getGraphics();
+      fm             = g.getFontMetrics(font);
+      g.dispose();
+      this.cell      = fm.getMaxAdvance();
+      this.height    = fm.getHeight();
+      this.ascent    = fm.getAscent();
+      this.advance   = new int[LAST_CHAR - FIRST_CHAR + 1];
+      this.atlas     = BubbleroidsScreen.createImage(component, cell * advance.length, height, true);
+      g              = atlas.getGraphics();
+      g.setFont(font);
+      g.setColor(Color.white);
+      for (c = FIRST_CHAR; c <= LAST_CHAR; c++)
+      {
+         advance[c - FIRST_CHAR] = fm.charWidth((char)c);
+         g.drawString(String.valueOf((char)c), (c - FIRST_CHAR) * cell, ascent);
+      }
+      g.dispose();
+
+      this.images  = new Image[lines];
+      this.widths  = new int[lines];
+      this.texts   = new String[lines];
+      this.labels  = new String[lines];
+      this.numbers = new int[lines];
+      this.chars   = new char[64];
+   }
+
+
+   // Methods:
+
+   public void text(int line, String text)
+   {
+      int n;
+
+      // Set the text of a line, putting its image together again if it changed.
+
+      if ((labels[line] == null) && text.equals(texts[line]))
+      {
+         return;
+      }
+      texts[line]  = text;
+      labels[line] = null;
+      n            = text.length();
+      if (chars.length < n)
+      {
+         chars = new char[n];
+      }
+      text.getChars(0, n, chars, 0);
+      compose(line, n);
+   }
+
+
+   public void number(int line, String label, int number)
+   {
+      int n, i, j, v;
+
+      // Set a line to a label followed by a number, putting its image together again if either
+      // changed.
+
+      if ((label == labels[line]) && (number == numbers[line]))
+      {
+         return;
+      }
+      labels[line]  = label;
+      numbers[line] = number;
+      texts[line]   = null;
+      n             = label.length();
+      if (chars.length < n + 11)
+      {
+         chars = new char[n + 11];
+      }
+      label.getChars(0, n, chars, 0);
+      if (number < 0)
+      {
+         chars[n++] = '-';
+      }
+
+      // Write the digits backwards, then turn them around. Digits are taken off a negative
+      // value so the most negative number works too.
+
+      v = (number < 0) ? number : -number;
+      i = n;
+      do
+      {
+         chars[n++] = (char)('0' - v % 10);
+         v         /= 10;
+      } while (v != 0);
+      for (j = n - 1; i < j; i++, j--)
+      {
+         v        = chars[i];
+         chars[i] = chars[j];
+         chars[j] = (char)v;
+      }
+      compose(line, n);
+   }
+
+
+   public int width(int line)
+   {
+      return(widths[line]);
+   }
+
+
+   public void draw(Graphics g, int line, int x, int y)
+   {
+      // Draw a line with its baseline at y, as drawString() would.
+
+      if (widths[line] > 0)
+      {
+         g.drawImage(images[line], x, y - ascent, null);
+      }
+   }
+
+
+   void compose(int line, int n)
+   {
+      Graphics2D g;
+      int        i, c, x, w;
+
+      // Put together the image of a line from the first n characters in chars, making a wider
+      // image if it does not fit.
+
+      w = 0;
+      for (i = 0; i < n; i++)
+      {
+         w += advance[index(chars[i])];
+      }
+      widths[line] = w;
+      if ((images[line] == null) || (images[line].getWidth(null) < w))
+      {
+         if (images[line] != null)
+         {
+            images[line].flush();
+         }
+         images[line] = BubbleroidsScreen.createImage(component, Math.max(w, 2 * cell), height, true);
+      }
+      g = (Graphics2D)images[line].getGraphics();
+      g.setComposite(AlphaComposite.Src);
+      g.setColor(CLEAR);
+      g.fillRect(0, 0, images[line].getWidth(null), height);
+      g.setComposite(AlphaComposite.SrcOver);
+      x = 0;
+      for (i = 0; i < n; i++)
+      {
+         c = index(chars[i]);
+         g.drawImage(atlas, x, 0, x + cell, height, c * cell, 0, (c + 1) * cell, height, null);
+         x += advance[c];
+      }
+      g.dispose();
+   }
+
+
+   static int index(char c)
+   {
+      return((((c < FIRST_CHAR) || (c > LAST_CHAR)) ? '?' : c) - FIRST_CHAR);
+   }
+}
@@ -0,0 +1,153 @@
+/************************************************************************************************
+*
+*  BubbleroidsPacer.java
+*
+************************************************************************************************/
+
+import java.util.concurrent.locks.*;
+
+/************************************************************************************************
+*  The BubbleroidsPacer class waits for deadlines on the System.nanoTime() clock. It parks the
+*  thread until shortly before a deadline and spins for the rest, since parking and sleeping can
+*  wake up well after the time asked for. It also keeps a histogram of how far from its due time
+*  each game tick ran, which can be read while the game is running.
+************************************************************************************************/
+
+class BubbleroidsPacer {
+   // Constants.
+
+   static final long MIN_SPIN     = 100000L;    // Least and most nanoseconds to spin before a
+   static final long MAX_SPIN     = 2000000L;   // deadline.
+   static final long BUCKET_NANOS = 10000L;     // Width of a histogram bucket.
+   static final int  BUCKETS      = 1000;       // Number of buckets, the last holds any later.
+
+   static final boolean SINGLE_PROCESSOR = (Runtime.getRuntime().availableProcessors() == 1);
+
+   // Fields:
+
+   long   spin;          // Nanoseconds before a deadline to stop parking and start spinning.
+   long[] histogram;     // Number of ticks by lateness or earliness, in BUCKET_NANOS steps.
+   long   count;         // Number of ticks recorded.
+   long   total;         // Sum and most of their lateness.
+   long   worst;
+   long   overruns;      // Number of ticks that took longer than a tick to run.
+   long   dropped;       // Number of ticks skipped to catch up.
+
+   // Constructors:
+
+   public BubbleroidsPacer()
+   {
+      this.spin      = 500000L;
+      this.histogram = new long[BUCKETS];
+      reset();
+   }
+
+
+   // Methods:
+
+   public void waitUntil(long deadline) throws InterruptedException
+   {
+      long now, target;
+
+      // Park until the spin time before the deadline. Parking can return early, so go back
+      // until the target is reached. Stop waiting at once if the thread is interrupted.
+
+      if (Thread.interrupted())
+      {
+         throw new InterruptedException();
+      }
+      now    = System.nanoTime();
+      target = deadline - spin;
+      if (target - now > 0)
+      {
+         do
+         {
+            LockSupport.parkNanos(target - now);
+            if (Thread.interrupted())
+            {
+               throw new InterruptedException();
+            }
+            now = System.nanoTime();
+         } while (target - now > 0);
+
+         // Keep the spin time about twice what parking overshoots by, growing it at once when
+         // parking is late and shrinking it slowly when it is on time.
+
+         spin = Math.max(MIN_SPIN, Math.min(MAX_SPIN, Math.max(2 * (now - target), spin - spin / 16)));
+      }
+
+      // Spin out the rest, giving up the processor on each turn when there is only one so the
+      // spinning does not hold up the threads the game is waiting on.
+
+      while (deadline - System.nanoTime() > 0)
+      {
+         if (SINGLE_PROCESSOR)
+         {
+            Thread.yield();
+         }
+         else
+         {
+            Thread.onSpinWait();
+         }
+      }
+   }
+
+
+   public void record(long lateness)
+   {
+      // Count a tick that ran the given number of nanoseconds after it was due. Ticks that ran
+      // early are counted by how early they were.
+
+      lateness = Math.abs(lateness);
+      histogram[(int)Math.min(BUCKETS - 1, lateness / BUCKET_NANOS)]++;
+      count++;
+      total += lateness;
+      worst  = Math.max(worst, lateness);
+   }
+
+
+   public void reset()
+   {
+      int i;
+
+      for (i = 0; i < BUCKETS; i++)
+      {
+         histogram[i] = 0;
+      }
+      count    = 0;
+      total    = 0;
+      worst    = 0;
+      overruns = 0;
+      dropped  = 0;
+   }
+
+
+   public long percentile(double p)
+   {
+      long n, seen;
+      int  i;
+
+      // Return the lateness in nanoseconds that the given fraction of ticks were no later than,
+      // rounded up to the end of its bucket.
+
+      n    = (long)Math.ceil(p * count);
+      seen = 0;
+      for (i = 0; i < BUCKETS - 1; i++)
+      {
+         seen += histogram[i];
+         if (seen >= n)
+         {
+            return(Math.min(worst, (i + 1) * BUCKET_NANOS));
+         }
+      }
+      return(worst);
+   }
+
+
+   public String toString()
+   {
+      return(String.format("Jitter: %d ticks, mean %d us, 50%% %d us, 99%% %d us, max %d us, %d overrun, %d dropped",
+                           count, (count > 0) ? total / count / 1000 : 0, percentile(0.5) / 1000,
+                           percentile(0.99) / 1000, worst / 1000, overruns, dropped));
+   }
+}
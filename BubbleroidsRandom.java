@@ -0,0 +1,73 @@
+/************************************************************************************************
+*
+*  BubbleroidsRandom.java
+*
+************************************************************************************************/
+
+/************************************************************************************************
+*  The BubbleroidsRandom class is the random number generator of one game, so games do not share
+*  a generator between threads and a game started from the same seed plays out the same way. It
+*  is the SplitMix64 generator also used by java.util.SplittableRandom, written out here so its
+*  whole state is one field that can be saved and restored.
+************************************************************************************************/
+
+class BubbleroidsRandom {
+   // Constants.
+
+   static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;   // Step between states.
+
+   // Source of fresh seeds.
+
+   static long seeds = System.nanoTime();
+
+   // Fields:
+
+   long state;
+
+   // Constructors:
+
+   public BubbleroidsRandom(long seed)
+   {
+      setSeed(seed);
+   }
+
+
+   // Methods:
+
+   public void setSeed(long seed)
+   {
+      state = seed;
+   }
+
+
+   public long nextLong()
+   {
+      state += GOLDEN_GAMMA;
+      return(mix(state));
+   }
+
+
+   public double nextDouble()
+   {
+      // A double from 0 (inclusive) to 1 (exclusive), from the top 53 bits.
+
+      return((nextLong() >>> 11) * 0x1.0p-53);
+   }
+
+
+   public static long mix(long z)
+   {
+      z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+      z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+      return(z ^ (z >>> 31));
+   }
+
+
+   public static synchronized long freshSeed()
+   {
+      // A seed for a game that was not given one, different for each call.
+
+      seeds += GOLDEN_GAMMA;
+      return(mix(seeds ^ System.nanoTime()));
+   }
+}
@@ -0,0 +1,641 @@
+/************************************************************************************************
+*
+*  BubbleroidsRaster.java
+*
+************************************************************************************************/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/************************************************************************************************
+*  The BubbleroidsRaster class draws frames in software, straight into the pixels of an image,
+*  on several threads. Instead of being drawn as they come, the sky, points, lines, polygons and
+*  ovals of a frame are put on a list, each with the box around it. The screen is cut into TILE
+*  pixel square tiles and the list sorted into a list per tile, keeping its order. Then the tiles
+*  are drawn in parallel on a fork-join pool, each task filling in the sky under its tile and
+*  drawing the things that cross it, cut off at the tile's edges. As no two tasks write the same
+*  pixel, they need no locking, and a frame takes about as long as a tile's share of it.
+*
+*  Pixels are set the way Graphics sets them by default, without antialiasing: a pixel is inside
+*  a filled shape if its center is, lines are stepped pixel by pixel from end to end, and an oval
+*  outline is the ring one pixel thick just inside the box one pixel wider than the diameter.
+*  Lines and outlines come out the same as with Graphics, but the odd pixel at the edge of a
+*  filled shape can differ, since Graphics fills ovals as curves.
+************************************************************************************************/
+
+class BubbleroidsRaster {
+   // Constants.
+
+   static final int TILE = 128;       // Width and height of a tile in pixels.
+
+   static final int POINT        = 0; // Kinds of things drawn.
+   static final int LINE         = 1;
+   static final int POLYGON      = 2;
+   static final int FILL_POLYGON = 3;
+   static final int OVAL         = 4;
+   static final int FILL_OVAL    = 5;
+
+   // Fields:
+
+   int           width, height;   // Size of the frame in pixels and in tiles.
+   int           columns, rows;
+   BufferedImage image;           // Frame drawn, and its pixels.
+   int[]         pixels;
+
+   int   background;              // Color the frame is cleared to, when there is no sky.
+   int[] sky;                     // Sky under this frame, or null, and how far it has drifted.
+   int   skyOffset;
+   Image skyImage;                // Sky image last copied out, and its pixels.
+   int[] skyPixels;
+
+   int   count;                   // Number of things to draw, and for each its kind, color and
+   int[] kind;                    // box, from left and top to right and bottom, exclusive.
+   int[] color;
+   int[] left, top;
+   int[] right, bottom;
+   int[] a, b, c, d;              // Coordinates of a point or line, the first point and number
+   int   points;                  // of points of a polygon, or the box and diameter of an oval.
+   int[] xy;                      // Polygon points, x and y in turn.
+
+   int[] binStart;                // Things crossing each tile, in drawing order, from binStart
+   int[] bins;                    // up to the next tile's start.
+
+   int          threads;          // Threads drawing tiles, and the pool they run in, or null if
+   ForkJoinPool pool;             // the tiles are drawn on the calling thread.
+   Tile[]       tiles;
+   FrameTask    frame;
+
+   long frames;                   // Number of frames drawn, their total and longest time in
+   long total;                    // nanoseconds.
+   long worst;
+
+   // Constructors:
+
+   public BubbleroidsRaster(int width, int height, int threads)
+   {
+      this.kind     = new int[256];
+      this.color    = new int[256];
+      this.left     = new int[256];
+      this.top      = new int[256];
+      this.right    = new int[256];
+      this.bottom   = new int[256];
+      this.a        = new int[256];
+      this.b        = new int[256];
+      this.c        = new int[256];
+      this.d        = new int[256];
+      this.xy       = new int[256];
+      this.bins     = new int[256];
+      this.threads  = Math.max(1, threads);
+      this.pool     = (this.threads > 1) ? new ForkJoinPool(this.threads) : null;
+      resize(width, height);
+   }
+
+
+   // Methods:
+
+   public void resize(int width, int height)
+   {
+      int i;
+
+      // Make the image and tiles for frames of the given size, keeping the pool.
+
+      this.width     = width;
+      this.height    = height;
+      this.columns   = (width + TILE - 1) / TILE;
+      this.rows      = (height + TILE - 1) / TILE;
+      this.image     = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      this.pixels    = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+      this.binStart  = new int[columns * rows + 1];
+      this.tiles     = new Tile[columns * rows];
+      this.skyImage  = null;
+      this.skyPixels = null;
+      for (i = 0; i < tiles.length; i++)
+      {
+         tiles[i] = new Tile(this, i);
+      }
+      this.frame = new FrameTask(tiles);
+   }
+
+
+   public void begin(Color background)
+   {
+      // Start a frame on a plain background.
+
+      this.background = background.getRGB() & 0xffffff;
+      this.sky        = null;
+      this.count      = 0;
+      this.points     = 0;
+   }
+
+
+   public void sky(BubbleroidsStarfield starfield, double seconds)
+   {
+      Graphics g;
+      int      i, k, x, n;
+      int[]    sx, sy;
+
+      // Draw the sky of the starfield as it would draw itself. The pixels of its farthest layer
+      // are copied out once each time it is made, and the nearer layers are drawn as points.
+      // There is none on a raster with nothing showing.
+
+      if ((width <= 0) || (height <= 0))
+      {
+         return;
+      }
+      starfield.fit(width, height);
+      if (starfield.sky != skyImage)
+      {
+         skyImage = starfield.sky;
+         if (skyPixels == null)
+         {
+            skyPixels = new int[width * height];
+         }
+         g = image.getGraphics();
+         g.drawImage(skyImage, 0, 0, null);
+         g.dispose();
+         System.arraycopy(pixels, 0, skyPixels, 0, skyPixels.length);
+      }
+      sky       = skyPixels;
+      skyOffset = (starfield.layers > 1) ? starfield.offset(0, seconds) : 0;
+      for (k = 1; k < starfield.layers; k++)
+      {
+         x  = starfield.offset(k, seconds);
+         sx = starfield.starX[k];
+         sy = starfield.starY[k];
+         n  = starfield.colors[k].getRGB();
+         for (i = 0; i < sx.length; i++)
+         {
+            point((sx[i] - x < 0) ? sx[i] - x + width : sx[i] - x, sy[i], n);
+         }
+      }
+   }
+
+
+   public void point(int x, int y, int rgb)
+   {
+      int i;
+
+      i    = add(POINT, rgb, x, y, x + 1, y + 1);
+      a[i] = x;
+      b[i] = y;
+   }
+
+
+   public void line(int x0, int y0, int x1, int y1, Color color)
+   {
+      int i;
+
+      i    = add(LINE, color.getRGB(), Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1) + 1, Math.max(y0, y1) + 1);
+      a[i] = x0;
+      b[i] = y0;
+      c[i] = x1;
+      d[i] = y1;
+   }
+
+
+   public void polygon(Polygon p, int x, int y, Color color, boolean filled)
+   {
+      int i, k, l, t, r, m;
+
+      // Add a polygon moved by x, y, as an outline or filled in.
+
+      if (p.npoints == 0)
+      {
+         return;
+      }
+      if (points + 2 * p.npoints > xy.length)
+      {
+         xy = Arrays.copyOf(xy, Math.max(2 * xy.length, points + 2 * p.npoints));
+      }
+      l = r = p.xpoints[0];
+      t = m = p.ypoints[0];
+      for (k = 0; k < p.npoints; k++)
+      {
+         xy[points + 2 * k]     = p.xpoints[k] + x;
+         xy[points + 2 * k + 1] = p.ypoints[k] + y;
+         l = Math.min(l, p.xpoints[k]);
+         r = Math.max(r, p.xpoints[k]);
+         t = Math.min(t, p.ypoints[k]);
+         m = Math.max(m, p.ypoints[k]);
+      }
+      i       = add(filled ? FILL_POLYGON : POLYGON, color.getRGB(), l + x, t + y, r + x + 1, m + y + 1);
+      a[i]    = points;
+      b[i]    = p.npoints;
+      points += 2 * p.npoints;
+   }
+
+
+   public void oval(int x, int y, int diameter, Color color, boolean filled)
+   {
+      int i;
+
+      i    = add(filled ? FILL_OVAL : OVAL, color.getRGB(), x, y, x + diameter + 1, y + diameter + 1);
+      a[i] = x;
+      b[i] = y;
+      c[i] = diameter;
+   }
+
+
+   public void end()
+   {
+      long start;
+      int  i;
+
+      // Draw the frame on the pool and wait for it. With one thread, handing the tiles to the
+      // pool would only add waiting for it, so they are drawn right here.
+
+      start = System.nanoTime();
+      bin();
+      if (pool != null)
+      {
+         frame.reinitialize();
+         pool.invoke(frame);
+      }
+      else
+      {
+         for (i = 0; i < tiles.length; i++)
+         {
+            tiles[i].compute();
+         }
+      }
+      start  = System.nanoTime() - start;
+      frames++;
+      total += start;
+      worst  = Math.max(worst, start);
+   }
+
+
+   public void shutdown()
+   {
+      if (pool != null)
+      {
+         pool.shutdownNow();
+      }
+   }
+
+
+   int add(int what, int rgb, int l, int t, int r, int m)
+   {
+      int n;
+
+      // Put a thing on the list, making the list longer if it is full.
+
+      if (count == kind.length)
+      {
+         n      = 2 * count;
+         kind   = Arrays.copyOf(kind, n);
+         color  = Arrays.copyOf(color, n);
+         left   = Arrays.copyOf(left, n);
+         top    = Arrays.copyOf(top, n);
+         right  = Arrays.copyOf(right, n);
+         bottom = Arrays.copyOf(bottom, n);
+         a      = Arrays.copyOf(a, n);
+         b      = Arrays.copyOf(b, n);
+         c      = Arrays.copyOf(c, n);
+         d      = Arrays.copyOf(d, n);
+      }
+      kind[count]   = what;
+      color[count]  = rgb & 0xffffff;
+      left[count]   = l;
+      top[count]    = t;
+      right[count]  = r;
+      bottom[count] = m;
+      return(count++);
+   }
+
+
+   void bin()
+   {
+      int i, t, r, col, n;
+
+      // Count the things crossing each tile, turn the counts into starts, then list the things
+      // in order, moving each start on as its tile is filled. Afterwards each start has moved
+      // to where the next tile starts, so they are moved back by one tile.
+
+      Arrays.fill(binStart, 0);
+      n = 0;
+      for (i = 0; i < count; i++)
+      {
+         if (onScreen(i))
+         {
+            for (r = Math.max(top[i], 0) / TILE; r <= Math.min(bottom[i] - 1, height - 1) / TILE; r++)
+            {
+               for (col = Math.max(left[i], 0) / TILE; col <= Math.min(right[i] - 1, width - 1) / TILE; col++)
+               {
+                  binStart[r * columns + col + 1]++;
+                  n++;
+               }
+            }
+         }
+      }
+      if (bins.length < n)
+      {
+         bins = new int[Math.max(n, 2 * bins.length)];
+      }
+      for (t = 0; t < tiles.length; t++)
+      {
+         binStart[t + 1] += binStart[t];
+      }
+      for (i = 0; i < count; i++)
+      {
+         if (onScreen(i))
+         {
+            for (r = Math.max(top[i], 0) / TILE; r <= Math.min(bottom[i] - 1, height - 1) / TILE; r++)
+            {
+               for (col = Math.max(left[i], 0) / TILE; col <= Math.min(right[i] - 1, width - 1) / TILE; col++)
+               {
+                  bins[binStart[r * columns + col]++] = i;
+               }
+            }
+         }
+      }
+      for (t = tiles.length; t > 0; t--)
+      {
+         binStart[t] = binStart[t - 1];
+      }
+      binStart[0] = 0;
+   }
+
+
+   boolean onScreen(int i)
+   {
+      return((right[i] > 0) && (left[i] < width) && (bottom[i] > 0) && (top[i] < height));
+   }
+
+
+   void draw(int tile, double[] crossings)
+   {
+      int tl, tt, tr, tb, y, j, i;
+
+      // Draw one tile: the sky under it, then the things crossing it, cut off at its edges.
+
+      tl = (tile % columns) * TILE;
+      tt = (tile / columns) * TILE;
+      tr = Math.min(tl + TILE, width);
+      tb = Math.min(tt + TILE, height);
+      for (y = tt; y < tb; y++)
+      {
+         if (sky == null)
+         {
+            Arrays.fill(pixels, y * width + tl, y * width + tr, background);
+         }
+         else
+         {
+            copySky(y, tl, tr);
+         }
+      }
+      for (j = binStart[tile]; j < binStart[tile + 1]; j++)
+      {
+         i = bins[j];
+         switch (kind[i])
+         {
+            case POINT:
+               pixels[b[i] * width + a[i]] = color[i];
+               break;
+            case LINE:
+               line(a[i], b[i], c[i], d[i], color[i], tl, tt, tr, tb);
+               break;
+            case POLYGON:
+               outline(a[i], b[i], color[i], tl, tt, tr, tb);
+               break;
+            case FILL_POLYGON:
+               crossings = fill(i, crossings, tl, tt, tr, tb);
+               break;
+            default:
+               oval(i, tl, tt, tr, tb);
+         }
+      }
+      tiles[tile].crossings = crossings;
+   }
+
+
+   void copySky(int y, int tl, int tr)
+   {
+      int from, n;
+
+      // Copy a row of the sky under a tile, as drifted by skyOffset and wrapped around.
+
+      from = tl + skyOffset;
+      if (from >= width)
+      {
+         from -= width;
+      }
+      n = Math.min(tr - tl, width - from);
+      System.arraycopy(sky, y * width + from, pixels, y * width + tl, n);
+      if (n < tr - tl)
+      {
+         System.arraycopy(sky, y * width, pixels, y * width + tl + n, tr - tl - n);
+      }
+   }
+
+
+   void line(int x0, int y0, int x1, int y1, int rgb, int tl, int tt, int tr, int tb)
+   {
+      int dx, dy, sx, sy, err, e2;
+
+      // Step along the line, setting the pixels inside the tile.
+
+      dx  = Math.abs(x1 - x0);
+      dy  = -Math.abs(y1 - y0);
+      sx  = (x0 < x1) ? 1 : -1;
+      sy  = (y0 < y1) ? 1 : -1;
+      err = dx + dy;
+      while (true)
+      {
+         if ((x0 >= tl) && (x0 < tr) && (y0 >= tt) && (y0 < tb))
+         {
+            pixels[y0 * width + x0] = rgb;
+         }
+         if ((x0 == x1) && (y0 == y1))
+         {
+            return;
+         }
+         e2 = 2 * err;
+         if (e2 >= dy)
+         {
+            err += dy;
+            x0  += sx;
+         }
+         if (e2 <= dx)
+         {
+            err += dx;
+            y0  += sy;
+         }
+      }
+   }
+
+
+   void outline(int at, int n, int rgb, int tl, int tt, int tr, int tb)
+   {
+      int k, j;
+
+      for (k = 0, j = n - 1; k < n; j = k++)
+      {
+         line(xy[at + 2 * j], xy[at + 2 * j + 1], xy[at + 2 * k], xy[at + 2 * k + 1], rgb, tl, tt, tr, tb);
+      }
+   }
+
+
+   double[] fill(int i, double[] crossings, int tl, int tt, int tr, int tb)
+   {
+      int    at, n, y, k, j, m, s, from, to;
+      double yc, x0, y0, x1, y1, v;
+
+      // Fill the rows of a polygon inside the tile between pairs of edge crossings, sampled at
+      // the pixel centers. Graphics moves the points a quarter pixel down and right before
+      // filling, and so does this. The crossings go in the tile's scratch space, made larger if
+      // needed.
+
+      at = a[i];
+      n  = b[i];
+      if (crossings.length < n)
+      {
+         crossings = new double[n];
+      }
+      for (y = Math.max(top[i], tt); y < Math.min(bottom[i], tb); y++)
+      {
+         yc = y + 0.5;
+         m  = 0;
+         for (k = 0, j = n - 1; k < n; j = k++)
+         {
+            x0 = xy[at + 2 * j] + 0.25;
+            y0 = xy[at + 2 * j + 1] + 0.25;
+            x1 = xy[at + 2 * k] + 0.25;
+            y1 = xy[at + 2 * k + 1] + 0.25;
+            if ((y0 <= yc) != (y1 <= yc))
+            {
+               v = x0 + (yc - y0) * (x1 - x0) / (y1 - y0);
+               for (s = m++; (s > 0) && (crossings[s - 1] > v); s--)
+               {
+                  crossings[s] = crossings[s - 1];
+               }
+               crossings[s] = v;
+            }
+         }
+         for (k = 0; k + 1 < m; k += 2)
+         {
+            from = Math.max((int)Math.ceil(crossings[k] - 0.5), tl);
+            to   = Math.min((int)Math.ceil(crossings[k + 1] - 0.5), tr);
+            if (from < to)
+            {
+               Arrays.fill(pixels, y * width + from, y * width + to, color[i]);
+            }
+         }
+      }
+      return(crossings);
+   }
+
+
+   void oval(int i, int tl, int tt, int tr, int tb)
+   {
+      int     y;
+      double  radius, inner, cx, cy, dy, wo, wi;
+      boolean filled;
+
+      // Fill each row of an oval inside the tile. A filled oval comes out half a pixel down and
+      // right of its box with Graphics, so it is moved as much here. An outline has a radius
+      // half a pixel larger and leaves out the oval one pixel smaller inside it.
+
+      filled = (kind[i] == FILL_OVAL);
+      radius = filled ? c[i] / 2.0 : (c[i] + 1) / 2.0;
+      inner  = radius - 1.0;
+      cx     = a[i] + radius + (filled ? 0.5 : 0.0);
+      cy     = b[i] + radius + (filled ? 0.5 : 0.0);
+      for (y = Math.max(top[i], tt); y < Math.min(bottom[i], tb); y++)
+      {
+         dy = y + 0.5 - cy;
+         if (dy * dy >= radius * radius)
+         {
+            continue;
+         }
+         wo = Math.sqrt(radius * radius - dy * dy);
+         if (filled || (inner <= 0.0) || (dy * dy >= inner * inner))
+         {
+            span(y, cx - wo, cx + wo, color[i], tl, tr);
+         }
+         else
+         {
+            wi = Math.sqrt(inner * inner - dy * dy);
+            span(y, cx - wo, cx - wi, color[i], tl, tr);
+            span(y, cx + wi, cx + wo, color[i], tl, tr);
+         }
+      }
+   }
+
+
+   void span(int y, double x0, double x1, int rgb, int tl, int tr)
+   {
+      int from, to;
+
+      // Set the pixels of a row whose centers lie between x0 and x1.
+
+      from = Math.max((int)Math.ceil(x0 - 0.5), tl);
+      to   = Math.min((int)Math.ceil(x1 - 0.5), tr);
+      if (from < to)
+      {
+         Arrays.fill(pixels, y * width + from, y * width + to, rgb);
+      }
+   }
+
+
+   public String toString()
+   {
+      return(String.format("Raster: %d threads, %d tiles, mean %d us, max %d us", threads,
+                           tiles.length, (frames > 0) ? total / frames / 1000 : 0, worst / 1000));
+   }
+
+
+   /*********************************************************************************************
+   *  Task drawing one tile, kept from frame to frame with its scratch space for crossings.
+   *********************************************************************************************/
+
+   static class Tile extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      BubbleroidsRaster raster;
+      int               tile;
+      double[]          crossings = new double[16];
+
+      Tile(BubbleroidsRaster raster, int tile)
+      {
+         this.raster = raster;
+         this.tile   = tile;
+      }
+
+
+      protected void compute()
+      {
+         raster.draw(tile, crossings);
+      }
+   }
+
+
+   /*********************************************************************************************
+   *  Task drawing a frame, by forking the tile tasks and waiting for them all.
+   *********************************************************************************************/
+
+   static class FrameTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      Tile[] tiles;
+
+      FrameTask(Tile[] tiles)
+      {
+         this.tiles = tiles;
+      }
+
+
+      protected void compute()
+      {
+         int i;
+
+         for (i = 0; i < tiles.length; i++)
+         {
+            tiles[i].reinitialize();
+         }
+         invokeAll(tiles);
+      }
+   }
+}
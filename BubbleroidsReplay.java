@@ -0,0 +1,471 @@
+/************************************************************************************************
+*
+*  BubbleroidsReplay.java
+*
+*  Usage:
+*
+*  java -Djava.awt.headless=true BubbleroidsReplay [tick=n] file ...
+*
+*  Plays back each recorded game as fast as possible and checks that it ends with the same score
+*  and state as when it was recorded. With tick=n, also shows the state of each game at tick n.
+*  Games are recorded with the record=file setting of Bubbleroids.
+*
+************************************************************************************************/
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/************************************************************************************************
+*  The BubbleroidsReplay class holds the input of one game, tick by tick, along with the seed and
+*  settings it was played with, so the game can be played again exactly. The input flags of each
+*  tick fit in a byte and change rarely, so they are stored as runs of a varint count and an
+*  input byte. A new run is started every INDEX_INTERVAL ticks and its position kept in an index,
+*  so play can start at any of those ticks without reading the input before it. As a replay is
+*  played, a snapshot of the game is kept at each index point, so going back to a tick only plays
+*  from the last index point before it.
+*
+*  The file format is:
+*
+*  "BRPL", version byte, then as varints the screen width and height, seed, photon, bubbleroid
+*  and debris limits, bubbleroid sides, storm size, number of ticks, final score, state hash,
+*  length of the input runs, the runs, the number of index points and the distance between
+*  their run positions.
+************************************************************************************************/
+
+class BubbleroidsReplay {
+   // Constants.
+
+   static final int MAGIC          = 0x4252504c;   // "BRPL"
+   static final int VERSION        = 1;
+   static final int INDEX_INTERVAL = 256;          // Ticks between index points.
+
+   // Game settings.
+
+   int  width, height;
+   long seed;
+   int  shots, bubbles, scrap, sides, storm;
+
+   // Input runs and the index of run positions every INDEX_INTERVAL ticks.
+
+   byte[] data;
+   int    length;
+   int[]  index;
+   int    indexCount;
+   int    ticks;
+
+   // Score and state hash at the end of the game, zero until it is finished.
+
+   boolean finished;
+   int     score;
+   long    hash;
+
+   // Run being recorded.
+
+   int runInput;
+   int runLength;
+
+   // Playback position.
+
+   int readOffset;     // Position in data of the next run.
+   int readInput;      // Input and ticks left in the current run.
+   int readLength;
+   int readTick;       // Tick the next input is for.
+
+   // Snapshots of the game at the index points, taken the first time each is played through.
+
+   ByteBuffer[] checkpoints;
+
+   // Constructors:
+
+   public BubbleroidsReplay(BubbleroidsGame game)
+   {
+      // Start recording a game that has just been initialized.
+
+      this.width   = game.world.width;
+      this.height  = game.world.height;
+      this.seed    = game.seed;
+      this.shots   = game.config.shots;
+      this.bubbles = game.config.bubbles;
+      this.scrap   = game.config.scrap;
+      this.sides   = game.config.sides;
+      this.storm   = game.config.storm;
+      this.data    = new byte[256];
+      this.index   = new int[16];
+   }
+
+
+   BubbleroidsReplay()
+   {
+   }
+
+
+   // Methods:
+
+   public void record(int input)
+   {
+      // Add the input of the next tick, starting a new run at each index point.
+
+      if (ticks % INDEX_INTERVAL == 0)
+      {
+         endRun();
+         if (indexCount == index.length)
+         {
+            index = Arrays.copyOf(index, 2 * indexCount);
+         }
+         index[indexCount++] = length;
+      }
+      if ((runLength > 0) && (input != runInput))
+      {
+         endRun();
+      }
+      runInput = input;
+      runLength++;
+      ticks++;
+   }
+
+
+   public void finish(BubbleroidsGame game)
+   {
+      // End the recording, noting the score and state to check a replay against.
+
+      if (!finished)
+      {
+         endRun();
+         finished = true;
+         score    = game.score;
+         hash     = hash(game);
+      }
+   }
+
+
+   void endRun()
+   {
+      if (runLength > 0)
+      {
+         putVarint(runLength);
+         put(runInput);
+         runLength = 0;
+      }
+   }
+
+
+   void putVarint(long v)
+   {
+      // Seven bits at a time, low bits first, with the top bit set on all but the last byte.
+
+      while ((v & ~0x7fL) != 0)
+      {
+         put((int)((v & 0x7f) | 0x80));
+         v >>>= 7;
+      }
+      put((int)v);
+   }
+
+
+   void put(int b)
+   {
+      if (length == data.length)
+      {
+         data = Arrays.copyOf(data, 2 * length);
+      }
+      data[length++] = (byte)b;
+   }
+
+
+   public BubbleroidsGame start()
+   {
+      // Create a game with the recorded settings and seed, ready to play from the first tick.
+
+      BubbleroidsConfig config = new BubbleroidsConfig();
+      BubbleroidsGame   game;
+
+      config.shots   = shots;
+      config.bubbles = bubbles;
+      config.scrap   = scrap;
+      config.sides   = sides;
+      config.storm   = storm;
+      game           = new BubbleroidsGame(width, height, config);
+      game.initGame(seed);
+      seek(0);
+      return(game);
+   }
+
+
+   public void seek(int tick)
+   {
+      // Move the playback position to the given tick, starting from the index point before it.
+
+      tick       = Math.max(0, Math.min(ticks, tick));
+      readOffset = (indexCount > 0) ? index[Math.min(indexCount - 1, tick / INDEX_INTERVAL)] : 0;
+      readTick   = (tick / INDEX_INTERVAL) * INDEX_INTERVAL;
+      readLength = 0;
+      while (readTick < tick)
+      {
+         next();
+      }
+   }
+
+
+   public int next()
+   {
+      // Return the input of the next tick.
+
+      int shift;
+
+      if (readLength == 0)
+      {
+         readLength = 0;
+         for (shift = 0; (data[readOffset] & 0x80) != 0; shift += 7)
+         {
+            readLength |= (data[readOffset++] & 0x7f) << shift;
+         }
+         readLength |= data[readOffset++] << shift;
+         readInput   = data[readOffset++];
+      }
+      readLength--;
+      readTick++;
+      return(readInput);
+   }
+
+
+   public BubbleroidsGame play(int tick)
+   {
+      // Play a new game up to the given tick, or to the end if it is past the end, restoring the
+      // latest snapshot before the tick if there is one.
+
+      BubbleroidsGame game = start();
+      int             k;
+
+      tick = Math.min(ticks, tick);
+      if (checkpoints == null)
+      {
+         checkpoints = new ByteBuffer[indexCount];
+      }
+      for (k = Math.min(tick / INDEX_INTERVAL, indexCount - 1); (k > 0) && (checkpoints[k] == null); k--)
+      {
+      }
+      if (k > 0)
+      {
+         game.restore(checkpoints[k].duplicate());
+         seek(k * INDEX_INTERVAL);
+      }
+      while (readTick < tick)
+      {
+         game.step(next());
+         k = readTick / INDEX_INTERVAL;
+         if ((readTick % INDEX_INTERVAL == 0) && (k < indexCount) && (checkpoints[k] == null))
+         {
+            checkpoints[k] = game.snapshot();
+         }
+      }
+      if ((readTick == ticks) && game.playing)
+      {
+         // The game was quit.
+
+         game.endGame();
+      }
+      return(game);
+   }
+
+
+   public static long hash(BubbleroidsGame game)
+   {
+      long h;
+      int  i;
+
+      // Combine everything that moves, scores or is random into one number.
+
+      h = game.random.state;
+      h = 31 * h + game.score;
+      h = 31 * h + game.shipsLeft;
+      h = 31 * h + hash(game.ship);
+      h = 31 * h + hash(game.ufo);
+      h = 31 * h + hash(game.missile);
+      for (i = 0; i < game.bubbleroids.size; i++)
+      {
+         if (game.bubbleroids.active[i])
+         {
+            h = 31 * h + Double.doubleToLongBits(game.bubbleroids.currentX[i]);
+            h = 31 * h + Double.doubleToLongBits(game.bubbleroids.currentY[i]);
+         }
+      }
+      for (i = 0; i < game.photons.size; i++)
+      {
+         if (game.photons.active[i])
+         {
+            h = 31 * h + Double.doubleToLongBits(game.photons.currentX[i]);
+            h = 31 * h + Double.doubleToLongBits(game.photons.currentY[i]);
+         }
+      }
+      return(h);
+   }
+
+
+   static long hash(BubbleroidsSprite s)
+   {
+      if (!s.active)
+      {
+         return(0);
+      }
+      return(31 * (31 * Double.doubleToLongBits(s.currentX) + Double.doubleToLongBits(s.currentY)) +
+             Double.doubleToLongBits(s.angle));
+   }
+
+
+   public void save(String file) throws IOException
+   {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      int              i;
+
+      try
+      {
+         out.writeInt(MAGIC);
+         out.writeByte(VERSION);
+         writeVarint(out, width);
+         writeVarint(out, height);
+         writeVarint(out, (seed << 1) ^ (seed >> 63));
+         writeVarint(out, shots);
+         writeVarint(out, bubbles);
+         writeVarint(out, scrap);
+         writeVarint(out, sides);
+         writeVarint(out, storm);
+         writeVarint(out, ticks);
+         writeVarint(out, score);
+         writeVarint(out, hash);
+         writeVarint(out, length);
+         out.write(data, 0, length);
+         writeVarint(out, indexCount);
+         for (i = 0; i < indexCount; i++)
+         {
+            writeVarint(out, index[i] - ((i > 0) ? index[i - 1] : 0));
+         }
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+
+   public static BubbleroidsReplay load(String file) throws IOException
+   {
+      DataInputStream   in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      BubbleroidsReplay replay;
+      long              seed;
+      int               i;
+
+      try
+      {
+         if ((in.readInt() != MAGIC) || (in.readByte() != VERSION))
+         {
+            throw new IOException("Not a Bubbleroids replay: " + file);
+         }
+         replay          = new BubbleroidsReplay();
+         replay.width    = (int)readVarint(in);
+         replay.height   = (int)readVarint(in);
+         seed            = readVarint(in);
+         replay.seed     = (seed >>> 1) ^ -(seed & 1);
+         replay.shots    = (int)readVarint(in);
+         replay.bubbles  = (int)readVarint(in);
+         replay.scrap    = (int)readVarint(in);
+         replay.sides    = (int)readVarint(in);
+         replay.storm    = (int)readVarint(in);
+         replay.ticks    = (int)readVarint(in);
+         replay.score    = (int)readVarint(in);
+         replay.hash     = readVarint(in);
+         replay.length   = (int)readVarint(in);
+         replay.data     = new byte[replay.length];
+         in.readFully(replay.data);
+         replay.indexCount = (int)readVarint(in);
+         replay.index      = new int[replay.indexCount];
+         for (i = 0; i < replay.indexCount; i++)
+         {
+            replay.index[i] = (int)readVarint(in) + ((i > 0) ? replay.index[i - 1] : 0);
+         }
+         replay.finished = true;
+      }
+      finally
+      {
+         in.close();
+      }
+      return(replay);
+   }
+
+
+   static void writeVarint(DataOutputStream out, long v) throws IOException
+   {
+      while ((v & ~0x7fL) != 0)
+      {
+         out.writeByte((int)((v & 0x7f) | 0x80));
+         v >>>= 7;
+      }
+      out.writeByte((int)v);
+   }
+
+
+   static long readVarint(DataInputStream in) throws IOException
+   {
+      long v;
+      int  b, shift;
+
+      v = 0;
+      for (shift = 0; ; shift += 7)
+      {
+         b  = in.readUnsignedByte();
+         v |= (long)(b & 0x7f) << shift;
+         if ((b & 0x80) == 0)
+         {
+            return(v);
+         }
+      }
+   }
+
+
+   // Main.
+   public static void main(String[] args) throws IOException
+   {
+      BubbleroidsReplay replay;
+      BubbleroidsGame   game;
+      long              start, nanos;
+      int               i, tick, failed;
+
+      tick   = -1;
+      failed = 0;
+      for (i = 0; i < args.length; i++)
+      {
+         if (args[i].startsWith("tick="))
+         {
+            tick = Integer.parseInt(args[i].substring(5));
+            continue;
+         }
+
+         // Play the whole game and check how it ended.
+
+         replay = load(args[i]);
+         start  = System.nanoTime();
+         game   = replay.play(replay.ticks);
+         nanos  = System.nanoTime() - start;
+         if ((game.score != replay.score) || (hash(game) != replay.hash))
+         {
+            failed++;
+         }
+         System.out.println(String.format("%s: %d ticks in %.1f ms (%.0f ticks/s), score %d, %s", args[i],
+                                          replay.ticks, nanos / 1.0e6, replay.ticks * 1.0e9 / Math.max(1, nanos),
+                                          game.score, ((game.score == replay.score) && (hash(game) == replay.hash)) ? "ok" : "MISMATCH"));
+
+         // Show the game at the given tick.
+
+         if (tick >= 0)
+         {
+            game = replay.play(tick);
+            System.out.println(String.format("  tick %d: score %d, ships %d, bubbleroids %d, hash %016x", replay.readTick,
+                                             game.score, game.shipsLeft, game.bubbleroids.count, hash(game)));
+         }
+      }
+      if (failed > 0)
+      {
+         System.exit(1);
+      }
+   }
+}
@@ -0,0 +1,451 @@
+/************************************************************************************************
+*
+*  BubbleroidsRewind.java
+*
+************************************************************************************************/
+
+import java.nio.*;
+
+/************************************************************************************************
+*  The BubbleroidsRewind class keeps the last few seconds of a game in a fixed amount of memory,
+*  so play can be wound back to any tick still held. Each tick is stored as a frame in a ring of
+*  bytes, the oldest frames making room for new ones. Every KEY_INTERVAL ticks the frame is a
+*  keyframe, a whole snapshot of the game. The frames in between only hold the parts of the game
+*  that did not change the way they were expected to.
+*
+*  To find those parts, a shadow game is kept in the state the frames so far rebuild. Before
+*  each delta frame it is moved on the way most things move on their own: sprites and stored
+*  objects are advanced, and photons and debris count down and expire. Each record of the game
+*  (the scores and counters, a sprite, the bookkeeping of a store or one slot in it) is then
+*  compared with the shadow's, and only those that differ are written, each with a varint tag
+*  saying which it is, ending with a zero tag. So bubbleroids that only drift along, debris that
+*  flies until it expires and photons that have not hit anything cost nothing, while the ship,
+*  the counters and anything that bounced, broke or exploded is written out.
+************************************************************************************************/
+
+class BubbleroidsRewind {
+   // Constants.
+
+   static final int KEY_INTERVAL = 30;             // Ticks between keyframes.
+   static final int BUDGET       = 4 * 1024 * 1024;   // Bytes kept for frames, at least.
+
+   static final byte DELTA = 0;                    // Frame types.
+   static final byte KEY   = 1;
+
+   static final int VALUES      = 1;               // Record tags. Slot i of store s has tag
+   static final int SHIP        = 2;               // FIRST_SLOT + 3 * i + s, with the stores
+   static final int UFO         = 3;               // numbered in the order below.
+   static final int MISSILE     = 4;
+   static final int PHOTONS     = 5;
+   static final int BUBBLEROIDS = 6;
+   static final int EXPLOSIONS  = 7;
+   static final int FIRST_SLOT  = 8;
+
+   // Fields:
+
+   BubbleroidsGame game;      // Game being kept.
+   BubbleroidsGame shadow;    // Game as rebuilt from the frames.
+
+   ByteBuffer ring;           // Frame data.
+   ByteBuffer view;           // Window on one frame of the ring.
+   ByteBuffer frame;          // Frame being written.
+   ByteBuffer live;           // A record of the game and of the shadow, to compare.
+   ByteBuffer kept;
+   ByteBuffer state;          // Snapshot copied from the shadow into the game.
+
+   int[]     offset;          // Position, length and type of each frame, by tick modulo the
+   int[]     length;          // most frames kept.
+   boolean[] key;
+
+   int next;                  // Tick of the next frame.
+   int count;                 // Number of frames kept.
+   int tail;                  // Position in the ring after the newest frame.
+   int sinceKey;              // Ticks since the last keyframe.
+
+   // Constructors:
+
+   public BubbleroidsRewind(BubbleroidsGame game, int seconds)
+   {
+      int size, record;
+
+      // Keep at most the given number of seconds of ticks, in a ring large enough for a few
+      // keyframes however crowded the game gets.
+
+      this.game   = game;
+      this.shadow = new BubbleroidsGame(game.world.width, game.world.height, game.config);
+      size        = game.snapshotSize();
+      record      = Math.max(128, 16 + 4 * Math.max(game.photons.capacity,
+                                     Math.max(game.bubbleroids.capacity, game.explosions.capacity)));
+      record      = Math.max(record, Math.max(game.ship.saveSize(), Math.max(game.ufo.saveSize(), game.missile.saveSize())));
+      this.ring   = ByteBuffer.allocate(Math.max(BUDGET, 4 * size));
+      this.view   = ring.duplicate();
+      this.frame  = ByteBuffer.allocate(1 + size + 5 * (FIRST_SLOT + game.photons.capacity +
+                                        game.bubbleroids.capacity + game.explosions.capacity));
+      this.live   = ByteBuffer.allocate(record);
+      this.kept   = ByteBuffer.allocate(record);
+      this.state  = ByteBuffer.allocate(size);
+      size        = Math.max(1, seconds * 1000 / game.config.delay);
+      this.offset = new int[size];
+      this.length = new int[size];
+      this.key    = new boolean[size];
+      clear();
+   }
+
+
+   // Methods:
+
+   public void clear()
+   {
+      // Forget all frames, as when a new game is started.
+
+      next     = 0;
+      count    = 0;
+      tail     = 0;
+      sinceKey = 0;
+   }
+
+
+   public int oldest()
+   {
+      // First and last tick that can be wound back to, the last being the current one. Both
+      // are -1 before the first tick is kept.
+
+      return((count > 0) ? next - count : -1);
+   }
+
+
+   public int newest()
+   {
+      return((count > 0) ? next - 1 : -1);
+   }
+
+
+   public void record()
+   {
+      int at;
+
+      // Write a frame for the tick just played, as a keyframe if it is time for one or there
+      // is nothing for a delta to start from.
+
+      if ((count > 0) && (sinceKey < KEY_INTERVAL))
+      {
+         encodeDelta();
+      }
+      else
+      {
+         encodeKey();
+      }
+
+      // Make room for it by dropping the oldest frames. If that drops every frame, a delta has
+      // nothing to start from and is written again as a keyframe.
+
+      if (count == offset.length)
+      {
+         evict();
+      }
+      while ((at = place(frame.position())) < 0)
+      {
+         evict();
+      }
+      if ((count == 0) && (frame.get(0) == DELTA))
+      {
+         encodeKey();
+         at = place(frame.position());
+      }
+
+      // Copy it into the ring and bring the shadow up to date from it.
+
+      frame.flip();
+      ring.position(at);
+      ring.put(frame);
+      offset[next % offset.length] = at;
+      length[next % offset.length] = frame.limit();
+      key[next % offset.length]    = (frame.get(0) == KEY);
+      sinceKey = key[next % offset.length] ? 1 : sinceKey + 1;
+      tail     = at + frame.limit();
+      apply(next);
+      next++;
+      count++;
+   }
+
+
+   public void rewind(int tick)
+   {
+      int k, t;
+
+      // Put the game back in the state it was in after the given tick, and drop the frames
+      // after it so play goes on from there.
+
+      if ((count == 0) || (tick < oldest()) || (tick > newest()))
+      {
+         throw new IllegalArgumentException("Tick " + tick + " is not kept");
+      }
+      k = tick;
+      while (!key[k % offset.length])
+      {
+         k--;
+      }
+      apply(k);
+      for (t = k + 1; t <= tick; t++)
+      {
+         predict(shadow);
+         apply(t);
+      }
+      state.clear();
+      shadow.save(state);
+      state.flip();
+      game.restore(state);
+      count   -= newest() - tick;
+      next     = tick + 1;
+      tail     = offset[tick % offset.length] + length[tick % offset.length];
+      sinceKey = tick - k + 1;
+   }
+
+
+   public int bytes()
+   {
+      int i, n;
+
+      // Bytes used by the frames kept.
+
+      n = 0;
+      for (i = oldest(); i < next; i++)
+      {
+         n += length[i % offset.length];
+      }
+      return(n);
+   }
+
+
+   void encodeKey()
+   {
+      frame.clear();
+      frame.put(KEY);
+      game.save(frame);
+   }
+
+
+   void encodeDelta()
+   {
+      int i, n;
+
+      // Move the shadow on, then write the records that still differ. The bookkeeping of each
+      // store comes before its slots, since restoring it deactivates any slots past its end.
+
+      predict(shadow);
+      frame.clear();
+      frame.put(DELTA);
+      for (i = VALUES; i < FIRST_SLOT; i++)
+      {
+         compare(i);
+      }
+      n = Math.max(game.photons.size, shadow.photons.size);
+      for (i = 0; i < n; i++)
+      {
+         compare(FIRST_SLOT + 3 * i);
+      }
+      n = Math.max(game.bubbleroids.size, shadow.bubbleroids.size);
+      for (i = 0; i < n; i++)
+      {
+         compare(FIRST_SLOT + 3 * i + 1);
+      }
+      n = Math.max(game.explosions.size, shadow.explosions.size);
+      for (i = 0; i < n; i++)
+      {
+         compare(FIRST_SLOT + 3 * i + 2);
+      }
+      putVarint(frame, 0);
+   }
+
+
+   void compare(int tag)
+   {
+      live.clear();
+      save(game, tag, live);
+      live.flip();
+      kept.clear();
+      save(shadow, tag, kept);
+      kept.flip();
+      if (!live.equals(kept))
+      {
+         putVarint(frame, tag);
+         frame.put(live);
+      }
+   }
+
+
+   void apply(int tick)
+   {
+      int tag;
+
+      // Bring the shadow to the state after the given tick from its frame. A delta frame must
+      // come right after the shadow has been moved on from the tick before.
+
+      view.clear();
+      view.position(offset[tick % offset.length]);
+      view.limit(offset[tick % offset.length] + length[tick % offset.length]);
+      if (view.get() == KEY)
+      {
+         shadow.restore(view);
+      }
+      else
+      {
+         while ((tag = getVarint(view)) != 0)
+         {
+            restore(shadow, tag, view);
+         }
+      }
+   }
+
+
+   int place(int n)
+   {
+      int head;
+
+      // Return where a frame of n bytes can go without overwriting a kept frame, or -1 if it
+      // cannot. Frames are not split, so one that will not fit before the end goes at the start.
+
+      if (count == 0)
+      {
+         return(0);
+      }
+      head = offset[oldest() % offset.length];
+      if (tail > head)
+      {
+         if (tail + n <= ring.capacity())
+         {
+            return(tail);
+         }
+         return((n <= head) ? 0 : -1);
+      }
+      return((tail + n <= head) ? tail : -1);
+   }
+
+
+   void evict()
+   {
+      // Drop the oldest frame, and the delta frames after it that would have nothing to start
+      // from.
+
+      do
+      {
+         count--;
+      } while ((count > 0) && !key[oldest() % offset.length]);
+   }
+
+
+   static void predict(BubbleroidsGame g)
+   {
+      // Move the game on the way it moves when nothing hits anything.
+
+      predict(g.ship);
+      predict(g.ufo);
+      predict(g.missile);
+      g.photons.advance();
+      g.photons.expire();
+      g.bubbleroids.advance();
+      g.explosions.advance();
+      g.explosions.expire();
+   }
+
+
+   static void predict(BubbleroidsSprite s)
+   {
+      if (s.active)
+      {
+         s.advance();
+         s.render();
+      }
+   }
+
+
+   static BubbleroidsEntities store(BubbleroidsGame g, int s)
+   {
+      return((s == 0) ? g.photons : (s == 1) ? g.bubbleroids : g.explosions);
+   }
+
+
+   static void save(BubbleroidsGame g, int tag, ByteBuffer b)
+   {
+      int i, s;
+
+      switch (tag)
+      {
+         case VALUES:      g.saveValues(b); break;
+         case SHIP:        g.ship.save(b); break;
+         case UFO:         g.ufo.save(b); break;
+         case MISSILE:     g.missile.save(b); break;
+         case PHOTONS:     g.photons.saveBookkeeping(b); break;
+         case BUBBLEROIDS: g.bubbleroids.saveBookkeeping(b); break;
+         case EXPLOSIONS:  g.explosions.saveBookkeeping(b); break;
+         default:
+            i = (tag - FIRST_SLOT) / 3;
+            s = (tag - FIRST_SLOT) % 3;
+            store(g, s).saveSlot(b, i);
+            if (s == 1)
+            {
+               g.saveBubbleroid(b, i);
+            }
+            else if (s == 2)
+            {
+               g.saveDebris(b, i);
+            }
+      }
+   }
+
+
+   static void restore(BubbleroidsGame g, int tag, ByteBuffer b)
+   {
+      int i, s;
+
+      switch (tag)
+      {
+         case VALUES:      g.restoreValues(b); break;
+         case SHIP:        g.ship.restore(b); break;
+         case UFO:         g.ufo.restore(b); break;
+         case MISSILE:     g.missile.restore(b); break;
+         case PHOTONS:     g.photons.restoreBookkeeping(b); break;
+         case BUBBLEROIDS: g.bubbleroids.restoreBookkeeping(b); break;
+         case EXPLOSIONS:  g.explosions.restoreBookkeeping(b); break;
+         default:
+            i = (tag - FIRST_SLOT) / 3;
+            s = (tag - FIRST_SLOT) % 3;
+            store(g, s).restoreSlot(b, i);
+            if (s == 1)
+            {
+               g.restoreBubbleroid(b, i);
+            }
+            else if (s == 2)
+            {
+               g.restoreDebris(b, i);
+            }
+      }
+   }
+
+
+   static void putVarint(ByteBuffer b, int v)
+   {
+      while ((v & ~0x7f) != 0)
+      {
+         b.put((byte)((v & 0x7f) | 0x80));
+         v >>>= 7;
+      }
+      b.put((byte)v);
+   }
+
+
+   static int getVarint(ByteBuffer b)
+   {
+      int v, shift, c;
+
+      v     = 0;
+      shift = 0;
+      do
+      {
+         c      = b.get();
+         v     |= (c & 0x7f) << shift;
+         shift += 7;
+      } while ((c & 0x80) != 0);
+      return(v);
+   }
+}
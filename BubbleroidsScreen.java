@@ -0,0 +1,293 @@
+/************************************************************************************************
+*
+*  BubbleroidsScreen.java
+*
+************************************************************************************************/
+
+import java.awt.*;
+import java.awt.image.*;
+
+/************************************************************************************************
+*  The BubbleroidsScreen class puts frames on a canvas. Where the canvas can have one, it draws
+*  into the back buffer of a BufferStrategy, which flips pages or blits inside video memory, so
+*  a frame is never copied out of the accelerated pipeline. Otherwise it draws into a
+*  VolatileImage and blits that, and if neither can be made, into an ordinary image as before.
+*
+*  Accelerated surfaces can lose their contents at any time, for instance when the display mode
+*  changes, so a frame is drawn between begin() and end() and drawn again for as long as end()
+*  says it was lost. The time each present takes is measured, and shown with the tick timing.
+*  Without a canvas, as when the game runs headless, frames are drawn into the image and never
+*  presented.
+*
+*  A screen made to retain its frames never uses a buffer strategy, whose back buffer is
+*  undefined after a flip, so each frame starts from the one before and only the parts of it
+*  that changed need be drawn and presented. Until the first frame, and after its contents are
+*  lost, the buffer is fresh and the next frame has to be drawn whole.
+************************************************************************************************/
+
+class BubbleroidsScreen {
+   // Constants.
+
+   static final int NONE     = 0;   // Ways of presenting a frame, the first until the canvas
+   static final int STRATEGY = 1;   // can be drawn to.
+   static final int VOLATILE = 2;
+   static final int IMAGE    = 3;
+
+   // Colors with one bit of transparency, for images made without a screen.
+
+   static final ColorModel BITMASK = new DirectColorModel(25, 0xff0000, 0xff00, 0xff, 0x1000000);
+
+   // Fields:
+
+   Canvas         canvas;          // Canvas shown on, or null.
+   int            width, height;   // Size of a frame.
+   int            mode;
+   BufferStrategy strategy;
+   VolatileImage  volatileImage;
+   BufferedImage  image;
+   boolean        retained;        // Whether each frame starts from the last one.
+   boolean        fresh;           // Whether the next frame has to be drawn whole.
+
+   long presents;                  // Number of presents, their total and longest time in
+   long presentTotal;              // nanoseconds and the number of frames lost on the way.
+   long presentWorst;
+   long lost;
+
+   // Constructors:
+
+   public BubbleroidsScreen(Canvas canvas, int width, int height, boolean retained)
+   {
+      this.canvas   = canvas;
+      this.width    = width;
+      this.height   = height;
+      this.mode     = NONE;
+      this.retained = retained;
+      this.fresh    = true;
+   }
+
+
+   // Methods:
+
+   public void resize(int width, int height)
+   {
+      // Change the size of a frame, as when the canvas is resized. A buffer strategy follows
+      // the canvas by itself, but images are made again at the new size.
+
+      this.width  = width;
+      this.height = height;
+      this.fresh  = true;
+      if (volatileImage != null)
+      {
+         volatileImage.flush();
+         volatileImage = canvas.createVolatileImage(width, height);
+      }
+      if (image != null)
+      {
+         image.flush();
+         image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      }
+   }
+
+
+   public Graphics begin()
+   {
+      GraphicsConfiguration gc;
+      int                   v;
+
+      // Return the graphics to draw the next frame with.
+
+      if (mode == NONE)
+      {
+         choose();
+      }
+      if (mode == STRATEGY)
+      {
+         return(strategy.getDrawGraphics());
+      }
+      if (mode == VOLATILE)
+      {
+         gc = canvas.getGraphicsConfiguration();
+         v  = (gc != null) ? volatileImage.validate(gc) : VolatileImage.IMAGE_OK;
+         if (v == VolatileImage.IMAGE_INCOMPATIBLE)
+         {
+            volatileImage.flush();
+            volatileImage = canvas.createVolatileImage(width, height);
+         }
+         if (v != VolatileImage.IMAGE_OK)
+         {
+            fresh = true;
+         }
+         return(volatileImage.createGraphics());
+      }
+      return(image.createGraphics());
+   }
+
+
+   public boolean end(Graphics g)
+   {
+      return(end(g, null));
+   }
+
+
+   public boolean end(Graphics g, BubbleroidsDirty dirty)
+   {
+      Graphics screen;
+      Image    drawn;
+      long     start;
+      int      i;
+
+      // Present the frame drawn with the graphics from begin(), returning false if it was lost
+      // and has to be drawn again. Given the dirty rectangles, present only those.
+
+      g.dispose();
+      if (mode == NONE)
+      {
+         fresh = false;
+         return(true);
+      }
+      start = System.nanoTime();
+      if (mode == STRATEGY)
+      {
+         if (strategy.contentsRestored())
+         {
+            return(lose());
+         }
+         strategy.show();
+         if (strategy.contentsLost())
+         {
+            return(lose());
+         }
+      }
+      else
+      {
+         if ((mode == VOLATILE) && volatileImage.contentsLost())
+         {
+            return(lose());
+         }
+         screen = canvas.getGraphics();
+         if (screen == null)
+         {
+            fresh = false;
+            return(true);
+         }
+         drawn = (mode == VOLATILE) ? volatileImage : image;
+         if (dirty == null)
+         {
+            screen.drawImage(drawn, 0, 0, null);
+         }
+         else
+         {
+            for (i = 0; i < dirty.count; i++)
+            {
+               screen.drawImage(drawn, dirty.x[i], dirty.y[i], dirty.x[i] + dirty.w[i], dirty.y[i] + dirty.h[i],
+                                dirty.x[i], dirty.y[i], dirty.x[i] + dirty.w[i], dirty.y[i] + dirty.h[i], null);
+            }
+         }
+         Toolkit.getDefaultToolkit().sync();
+         screen.dispose();
+         if ((mode == VOLATILE) && volatileImage.contentsLost())
+         {
+            return(lose());
+         }
+      }
+      fresh         = false;
+      start         = System.nanoTime() - start;
+      presents++;
+      presentTotal += start;
+      presentWorst  = Math.max(presentWorst, start);
+      return(true);
+   }
+
+
+   boolean lose()
+   {
+      // Note a frame lost on the way to the screen.
+
+      lost++;
+      fresh = true;
+      return(false);
+   }
+
+
+   void choose()
+   {
+      // Once the canvas is on screen, use a buffer strategy if it can have one and frames need
+      // not be retained, or a volatile image. Until then, and without a canvas, frames are only
+      // drawn into an image.
+
+      if ((canvas != null) && canvas.isDisplayable())
+      {
+         fresh = true;
+         if (!retained)
+         {
+            try
+            {
+               canvas.createBufferStrategy(2);
+               strategy = canvas.getBufferStrategy();
+               mode     = STRATEGY;
+               return;
+            }
+            catch (RuntimeException e) {
+               strategy = null;
+            }
+         }
+         volatileImage = canvas.createVolatileImage(width, height);
+         if (volatileImage != null)
+         {
+            mode = VOLATILE;
+            return;
+         }
+         mode = IMAGE;
+      }
+      if (image == null)
+      {
+         image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+         fresh = true;
+      }
+   }
+
+
+   public static Image createImage(Component component, int width, int height, boolean transparent)
+   {
+      GraphicsConfiguration gc;
+
+      // Make an image that can be drawn onto the component quickly, kept in video memory where
+      // possible. Transparent pixels are either opaque or clear, which blits faster than blending.
+
+      gc = (component != null) ? component.getGraphicsConfiguration() : null;
+      if (gc != null)
+      {
+         return(gc.createCompatibleImage(width, height, transparent ? Transparency.BITMASK : Transparency.OPAQUE));
+      }
+      if (transparent)
+      {
+         return(new BufferedImage(BITMASK, BITMASK.createCompatibleWritableRaster(width, height), false, null));
+      }
+      return(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+   }
+
+
+   public String toString()
+   {
+      String name;
+
+      if (mode == STRATEGY)
+      {
+         name = strategy.getCapabilities().isPageFlipping() ? "page flipping" : "buffer strategy";
+      }
+      else if (mode == VOLATILE)
+      {
+         name = volatileImage.getCapabilities().isAccelerated() ? "volatile image" : "unaccelerated volatile image";
+      }
+      else if (mode == IMAGE)
+      {
+         name = "image";
+      }
+      else
+      {
+         name = "off screen";
+      }
+      return(String.format("Present: %s, mean %d us, max %d us, %d lost", name,
+                           (presents > 0) ? presentTotal / presents / 1000 : 0, presentWorst / 1000, lost));
+   }
+}
@@ -0,0 +1,354 @@
+/************************************************************************************************
+*
+*  BubbleroidsSprite.java
+*
+************************************************************************************************/
+
+import java.awt.*;
+import java.nio.*;
+
+/************************************************************************************************
+*  The BubbleroidsSprite class defines a game object, including it's shape, position, movement and
+*  rotation. It also can determine if two objects collide, testing round sprites as circles and
+*  only testing polygons against each other when their bounding boxes overlap. The position and
+*  rotation before the last move are kept so the sprite can be drawn part way between ticks. Its
+*  state can be saved to and restored from a buffer.
+************************************************************************************************/
+
+class BubbleroidsSprite {
+   // Fields:
+
+   BubbleroidsWorld world;   // Playing area it moves in.
+
+   Polygon shape;                // Initial sprite shape, centered at the origin (0,0).
+   double  radius;               // Radius of bubbleroid sprites.
+   boolean active;               // Active flag.
+   double  angle;                // Current angle of rotation.
+   double  deltaAngle;           // Amount to change the rotation angle.
+   double  currentX, currentY;   // Current position on screen.
+   double  deltaX, deltaY;       // Amount to change the screen position.
+   double  previousAngle;        // Rotation and position before the last move.
+   double  previousX, previousY;
+   Color   color;                // Color.
+   Color[] fade;                 // Colors its debris fades through, by debris counter.
+   Polygon sprite;               // Final location and shape of sprite after applying rotation and
+                                 // moving to screen position. Used for drawing on the screen and
+                                 // in detecting collisions.
+   int     left, right;          // Bounding box of the final sprite.
+   int     top, bottom;
+
+   // Constructors:
+
+   public BubbleroidsSprite(BubbleroidsWorld world)
+   {
+      this.world         = world;
+      this.shape         = new Polygon();
+      this.radius        = -1.0;
+      this.active        = false;
+      this.angle         = 0.0;
+      this.deltaAngle    = 0.0;
+      this.currentX      = 0.0;
+      this.currentY      = 0.0;
+      this.deltaX        = 0.0;
+      this.deltaY        = 0.0;
+      this.previousAngle = 0.0;
+      this.previousX     = 0.0;
+      this.previousY     = 0.0;
+      this.color         = Color.white;
+      this.sprite        = new Polygon();
+   }
+
+
+   // Methods:
+
+   public void advance()
+   {
+      // Update the rotation and position of the sprite based on the delta values. If the sprite
+      // moves off the edge of the screen, it is wrapped around to the other side.
+
+      this.previousAngle = this.angle;
+      this.previousX     = this.currentX;
+      this.previousY     = this.currentY;
+      this.angle += this.deltaAngle;
+      if (this.angle < 0)
+      {
+         this.angle += 2 * Math.PI;
+      }
+      if (this.angle > 2 * Math.PI)
+      {
+         this.angle -= 2 * Math.PI;
+      }
+      this.currentX += this.deltaX;
+      if (this.currentX < -world.width2)
+      {
+         this.currentX += world.width;
+      }
+      if (this.currentX > world.width2)
+      {
+         this.currentX -= world.width;
+      }
+      this.currentY -= this.deltaY;
+      if (this.currentY < -world.height2)
+      {
+         this.currentY += world.height;
+      }
+      if (this.currentY > world.height2)
+      {
+         this.currentY -= world.height;
+      }
+   }
+
+
+   public void render()
+   {
+      int i, n, x, y;
+
+      // Render the sprite's shape and location by rotating it's base shape and moving it to
+      // it's proper screen position.
+
+      render(this.sprite, 1.0);
+
+      // Find the bounding box.
+
+      n = this.sprite.npoints;
+      x = (int)Math.round(this.currentX) + world.width2;
+      y = (int)Math.round(this.currentY) + world.height2;
+      this.left = this.right  = (n > 0) ? this.sprite.xpoints[0] : x;
+      this.top  = this.bottom = (n > 0) ? this.sprite.ypoints[0] : y;
+      for (i = 1; i < n; i++)
+      {
+         this.left   = Math.min(this.left, this.sprite.xpoints[i]);
+         this.right  = Math.max(this.right, this.sprite.xpoints[i]);
+         this.top    = Math.min(this.top, this.sprite.ypoints[i]);
+         this.bottom = Math.max(this.bottom, this.sprite.ypoints[i]);
+      }
+   }
+
+
+   public Polygon render(Polygon p, double alpha)
+   {
+      return(render(p, alpha, 1.0, world.width2, world.height2));
+   }
+
+
+   public Polygon render(Polygon p, double alpha, double scale, int centerX, int centerY)
+   {
+      int    i, n, x, y;
+      double cos, sin;
+
+      // Render the sprite into the given polygon as it was the fraction alpha of the way through
+      // the last move, scaled up and with the middle of space at centerX, centerY, and return
+      // it. The polygon's vertex buffers are reused, so they are only replaced when the shape
+      // has more vertices than they can hold.
+
+      n = this.shape.npoints;
+      if (p.xpoints.length < n)
+      {
+         p.xpoints = new int[n];
+         p.ypoints = new int[n];
+      }
+      cos = Math.cos(between(this.previousAngle, this.angle, this.deltaAngle, alpha)) * scale;
+      sin = Math.sin(between(this.previousAngle, this.angle, this.deltaAngle, alpha)) * scale;
+      x   = (int)Math.round(between(this.previousX, this.currentX, this.deltaX, alpha) * scale) + centerX;
+      y   = (int)Math.round(between(this.previousY, this.currentY, -this.deltaY, alpha) * scale) + centerY;
+      for (i = 0; i < n; i++)
+      {
+         p.xpoints[i] = (int)Math.round(this.shape.xpoints[i] * cos + this.shape.ypoints[i] * sin) + x;
+         p.ypoints[i] = (int)Math.round(this.shape.ypoints[i] * cos - this.shape.xpoints[i] * sin) + y;
+      }
+      p.npoints = n;
+      p.invalidate();
+      return(p);
+   }
+
+
+   public static double between(double previous, double current, double delta, double alpha)
+   {
+      // Find the value the fraction alpha of the way through the last move. Values that did not
+      // get there by a plain move of delta, because they wrapped around the screen or were set
+      // directly, are not worth drawing in between and are left at the current value.
+
+      if ((alpha >= 1.0) || (Math.abs(current - previous - delta) > 1.0e-6))
+      {
+         return(current);
+      }
+      return(previous + alpha * (current - previous));
+   }
+
+
+   public boolean isColliding(BubbleroidsSprite s)
+   {
+      int i;
+
+      // Round sprites are tested as circles, against each other or against the other sprite's
+      // polygon.
+
+      if ((this.radius > 0.0) && (s.radius > 0.0))
+      {
+         return(circlesTouch(this.currentX, this.currentY, this.radius, s.currentX, s.currentY, s.radius));
+      }
+      if (this.radius > 0.0)
+      {
+         return(s.isTouchingCircle(this.currentX + world.width2, this.currentY + world.height2, this.radius));
+      }
+      if (s.radius > 0.0)
+      {
+         return(this.isTouchingCircle(s.currentX + world.width2, s.currentY + world.height2, s.radius));
+      }
+
+      // Polygons can only overlap if their bounding boxes do.
+
+      if ((this.right < s.left) || (s.right < this.left) || (this.bottom < s.top) || (s.bottom < this.top))
+      {
+         return(false);
+      }
+
+      // Determine if one sprite overlaps with another, i.e., if any vertice
+      // of one sprite lands inside the other.
+
+      for (i = 0; i < s.sprite.npoints; i++)
+      {
+         if (this.sprite.inside(s.sprite.xpoints[i], s.sprite.ypoints[i]))
+         {
+            return(true);
+         }
+      }
+      for (i = 0; i < this.sprite.npoints; i++)
+      {
+         if (s.sprite.inside(this.sprite.xpoints[i], this.sprite.ypoints[i]))
+         {
+            return(true);
+         }
+      }
+      return(false);
+   }
+
+
+   public boolean isTouchingCircle(double x, double y, double r)
+   {
+      int     i, j, n;
+      int[]   xp, yp;
+      double  ex, ey, t, dx, dy;
+      boolean inside;
+
+      // Determine if the final sprite overlaps a circle given in screen coordinates, i.e., if
+      // any edge comes within the radius of the center or the center lies inside the sprite.
+      // Nothing can touch unless the circle's bounding box overlaps the sprite's.
+
+      if ((x + r < this.left) || (x - r > this.right) || (y + r < this.top) || (y - r > this.bottom))
+      {
+         return(false);
+      }
+      n      = this.sprite.npoints;
+      xp     = this.sprite.xpoints;
+      yp     = this.sprite.ypoints;
+      inside = false;
+      for (i = 0, j = n - 1; i < n; j = i++)
+      {
+         // Distance from the center to the closest point on the edge from vertex j to i.
+
+         ex = xp[i] - xp[j];
+         ey = yp[i] - yp[j];
+         t  = ((x - xp[j]) * ex + (y - yp[j]) * ey) / Math.max((ex * ex) + (ey * ey), 1.0);
+         t  = Math.max(0.0, Math.min(1.0, t));
+         dx = x - (xp[j] + t * ex);
+         dy = y - (yp[j] + t * ey);
+         if ((dx * dx) + (dy * dy) <= r * r)
+         {
+            return(true);
+         }
+
+         // Count the edges crossed by a ray from the center to the right.
+
+         if (((yp[i] > y) != (yp[j] > y)) && (x < xp[j] + (y - yp[j]) * ex / ey))
+         {
+            inside = !inside;
+         }
+      }
+      return(inside);
+   }
+
+
+   public static boolean circlesTouch(double x1, double y1, double r1, double x2, double y2, double r2)
+   {
+      double dx, dy, r;
+
+      // Determine if two circles overlap, rejecting on each axis before multiplying.
+
+      r  = r1 + r2;
+      dx = x1 - x2;
+      if ((dx > r) || (dx < -r))
+      {
+         return(false);
+      }
+      dy = y1 - y2;
+      if ((dy > r) || (dy < -r))
+      {
+         return(false);
+      }
+      return((dx * dx) + (dy * dy) <= r * r);
+   }
+
+
+   public void save(ByteBuffer b)
+   {
+      int i;
+
+      // Write the movement and final shape of the sprite. The initial shape, radius and color
+      // are set up when the game is created and are not saved.
+
+      b.put((byte)(this.active ? 1 : 0));
+      b.putDouble(this.angle).putDouble(this.deltaAngle);
+      b.putDouble(this.currentX).putDouble(this.currentY);
+      b.putDouble(this.deltaX).putDouble(this.deltaY);
+      b.putDouble(this.previousAngle).putDouble(this.previousX).putDouble(this.previousY);
+      b.putInt(this.sprite.npoints);
+      for (i = 0; i < this.sprite.npoints; i++)
+      {
+         b.putInt(this.sprite.xpoints[i]).putInt(this.sprite.ypoints[i]);
+      }
+      b.putInt(this.left).putInt(this.right).putInt(this.top).putInt(this.bottom);
+   }
+
+
+   public void restore(ByteBuffer b)
+   {
+      int i, n;
+
+      this.active        = (b.get() != 0);
+      this.angle         = b.getDouble();
+      this.deltaAngle    = b.getDouble();
+      this.currentX      = b.getDouble();
+      this.currentY      = b.getDouble();
+      this.deltaX        = b.getDouble();
+      this.deltaY        = b.getDouble();
+      this.previousAngle = b.getDouble();
+      this.previousX     = b.getDouble();
+      this.previousY     = b.getDouble();
+      n                  = b.getInt();
+      if (this.sprite.xpoints.length < n)
+      {
+         this.sprite.xpoints = new int[n];
+         this.sprite.ypoints = new int[n];
+      }
+      for (i = 0; i < n; i++)
+      {
+         this.sprite.xpoints[i] = b.getInt();
+         this.sprite.ypoints[i] = b.getInt();
+      }
+      this.sprite.npoints = n;
+      this.sprite.invalidate();
+      this.left   = b.getInt();
+      this.right  = b.getInt();
+      this.top    = b.getInt();
+      this.bottom = b.getInt();
+   }
+
+
+   public int saveSize()
+   {
+      // Most bytes save() writes.
+
+      return(1 + 9 * 8 + 4 + 8 * Math.max(this.shape.npoints, this.sprite.npoints) + 4 * 4);
+   }
+}
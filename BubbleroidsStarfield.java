@@ -0,0 +1,156 @@
+/************************************************************************************************
+*
+*  BubbleroidsStarfield.java
+*
+************************************************************************************************/
+
+import java.awt.*;
+import java.util.*;
+
+/************************************************************************************************
+*  The BubbleroidsStarfield class draws the black sky and its stars. The stars never change, so
+*  they are drawn once into an image the size of the screen and each frame is started with one
+*  blit of it, instead of clearing the screen and drawing every star again. The image is made
+*  again only when the screen changes size.
+*
+*  With more than one layer, the sky drifts sideways and wraps around, with the stars of each
+*  nearer layer drifting faster and brighter over it. Only the farthest layer is an image: the
+*  nearer ones are kept as arrays of star positions and drawn point by point, since blitting a
+*  screen-sized transparent image costs far more than drawing the few stars on it. A frame then
+*  costs one screen of blitting plus a point per star in the nearer layers.
+************************************************************************************************/
+
+class BubbleroidsStarfield {
+   // Constants.
+
+   static final int    DENSITY = 5000;   // Pixels of sky per star in each layer.
+   static final double DRIFT   = 24.0;   // Pixels per second the nearest layer drifts.
+
+   // Fields:
+
+   Component component;       // Component the sky is made compatible with, or null.
+   int       layers;          // Number of layers, one for stars that stay still.
+   int       width, height;   // Size the layers were made for.
+   Image     sky;             // Farthest layer, with the black sky.
+   int[][]   starX, starY;    // Stars of the nearer layers, nearest last.
+   Color[]   colors;
+   Random    random;          // Where the stars are scattered from.
+
+   // Constructors:
+
+   public BubbleroidsStarfield(Component component, int layers)
+   {
+      this.component = component;
+      this.layers    = Math.max(1, layers);
+      this.starX     = new int[this.layers][];
+      this.starY     = new int[this.layers][];
+      this.colors    = new Color[this.layers];
+      this.random    = new Random();
+   }
+
+
+   // Methods:
+
+   public void draw(Graphics g, int width, int height, double seconds)
+   {
+      int   i, k, x, n;
+      int[] sx, sy;
+
+      // Draw the sky filling the given size, with the layers drifted as far as they go in the
+      // given number of seconds. There is no sky to draw on a canvas with nothing showing, as
+      // before it is laid out or while its window is minimized.
+
+      if ((width <= 0) || (height <= 0))
+      {
+         return;
+      }
+      fit(width, height);
+      if (layers == 1)
+      {
+         g.drawImage(sky, 0, 0, null);
+         return;
+      }
+      x = offset(0, seconds);
+      g.drawImage(sky, -x, 0, null);
+      g.drawImage(sky, width - x, 0, null);
+      for (k = 1; k < layers; k++)
+      {
+         x  = offset(k, seconds);
+         sx = starX[k];
+         sy = starY[k];
+         g.setColor(colors[k]);
+         for (i = 0; i < sx.length; i++)
+         {
+            n = sx[i] - x;
+            if (n < 0)
+            {
+               n += width;
+            }
+            g.drawLine(n, sy[i], n, sy[i]);
+         }
+      }
+   }
+
+
+   public void fit(int width, int height)
+   {
+      // Make the layers for the given size, unless they were made for it already.
+
+      if ((sky == null) || (width != this.width) || (height != this.height))
+      {
+         build(width, height);
+      }
+   }
+
+
+   int offset(int layer, double seconds)
+   {
+      // How far a layer has drifted, wrapped around the screen.
+
+      if (width <= 0)
+      {
+         return(0);
+      }
+      return((int)Math.floorMod((long)(seconds * DRIFT * (layer + 1) / layers), (long)width));
+   }
+
+
+   void build(int width, int height)
+   {
+      Graphics g;
+      int      i, k, c, n;
+
+      // Scatter the stars of each layer at random, farther layers dimmer, and draw the farthest
+      // into the sky image.
+
+      this.width  = width;
+      this.height = height;
+      n           = width * height / DENSITY;
+      for (k = 0; k < layers; k++)
+      {
+         c         = 255 - (layers - 1 - k) * 160 / layers;
+         colors[k] = new Color(c, c, c);
+         starX[k]  = new int[n];
+         starY[k]  = new int[n];
+         for (i = 0; i < n; i++)
+         {
+            starX[k][i] = random.nextInt(width);
+            starY[k][i] = random.nextInt(height);
+         }
+      }
+      if (sky != null)
+      {
+         sky.flush();
+      }
+      sky = BubbleroidsScreen.createImage(component, width, height, false);
+      g   = sky.getGraphics();
+      g.setColor(Color.black);
+      g.fillRect(0, 0, width, height);
+      g.setColor(colors[0]);
+      for (i = 0; i < n; i++)
+      {
+         g.drawLine(starX[0][i], starY[0][i], starX[0][i], starY[0][i]);
+      }
+      g.dispose();
+   }
+}
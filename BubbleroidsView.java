@@ -0,0 +1,542 @@
+/************************************************************************************************
+*
+*  BubbleroidsView.java
+*
+************************************************************************************************/
+
+import java.awt.*;
+import java.awt.image.*;
+
+/************************************************************************************************
+*  The BubbleroidsView class draws the frames of a game: space scaled to fit a canvas of a given
+*  size, the stars behind it and the lines of text over it. A frame is drawn with a Graphics, or
+*  put together on a BubbleroidsRaster when there is one. With dirty rectangles, a frame is first
+*  measured, marking the box around each thing in it, and then only the things crossing each
+*  dirty rectangle are drawn.
+*
+*  The canvas can be resized at any time. Space is only magnified to fit it: the stars follow
+*  the canvas, but the game's world and the bubbleroids in it keep their size and number.
+*
+*  The view has no window of its own, so the applet draws its frames on the screen with it and
+*  BubbleroidsExport draws them into images without a display.
+************************************************************************************************/
+
+class BubbleroidsView {
+   // Shades of gray by brightness, for the missile and ship fades.
+
+   static final Color[] GRAYS = new Color[256];
+
+   static
+   {
+      int i;
+
+      for (i = 0; i < GRAYS.length; i++)
+      {
+         GRAYS[i] = new Color(i, i, i);
+      }
+   }
+
+   // Lines of text drawn over the game.
+
+   static final int SCORE_LINE   = 0;
+   static final int SHIPS_LINE   = 1;
+   static final int HIGH_LINE    = 2;
+   static final int TITLE_LINE   = 3;
+   static final int STATUS_LINE  = 4;
+   static final int PACER_LINE   = 5;
+   static final int SCREEN_LINE  = 6;
+   static final int BUBBLES_LINE = 7;
+   static final int RENDER_LINE  = 8;
+   static final int HUD_LINES    = 9;
+
+   // Game drawn, and the size of the canvas it is drawn on.
+
+   BubbleroidsGame game;
+   int             width, height;
+
+   // How space is fitted to the canvas: pixels per unit of space, where the middle of space is
+   // drawn, the shape photons are drawn with at that scale and the bars blacking out the canvas
+   // beyond the edges of space.
+
+   double    scale;
+   int       centerX, centerY;
+   Polygon   photon;
+   Polygon[] bars;
+
+   // The parts of the canvas to draw again, or null to draw all of it every frame. While
+   // measuring, a frame is not drawn but the box around each thing in it is marked dirty.
+   // Otherwise only things crossing the clip box are drawn.
+
+   BubbleroidsDirty dirty;
+   boolean          measuring;
+   int              clipLeft, clipTop;
+   int              clipRight, clipBottom;
+
+   // Software renderer the frame is put together on instead of drawing it, or null.
+
+   BubbleroidsRaster raster;
+
+   // Background stars, and the seconds they have drifted for, or negative to have them drift
+   // with the clock.
+
+   BubbleroidsStarfield starfield;
+   double               skySeconds = -1.0;
+
+   // Drawing scratch space and the images bubbleroids are drawn from.
+
+   Polygon                drawn = new Polygon();
+   BubbleroidsBubbleCache bubbles;
+
+   // Whether to draw in full detail, with the stars, filled in sprites and all the debris. It
+   // is only a way of drawing, so it is not part of the game, its snapshots or its replays.
+
+   boolean detail = true;
+
+   // Lines of text, the space around them and whether the timing lines are shown.
+
+   BubbleroidsHud hud;
+   int            fontWidth;
+   int            fontHeight;
+   boolean        timing;
+
+   // Constructors:
+
+   public BubbleroidsView(BubbleroidsGame game, Component component, Font font, int parallax, int width, int height)
+   {
+      // Draw the given game on a canvas of the given size, with images made compatible with the
+      // component, or null.
+
+      this.game       = game;
+      this.starfield  = new BubbleroidsStarfield(component, parallax);
+      this.bubbles    = new BubbleroidsBubbleCache(component);
+      this.hud        = new BubbleroidsHud(component, font, HUD_LINES);
+      this.fontWidth  = hud.cell;
+      this.fontHeight = hud.height;
+      fit(width, height);
+   }
+
+
+   // Methods:
+
+   public void fit(int width, int height)
+   {
+      int k;
+
+      // Scale space to fill as much of a canvas of the given size as it can without stretching,
+      // in the middle of it, and make the shapes that depend on the scale. The raster and dirty
+      // rectangles, if any, are made again for the new size. Only the drawing follows the
+      // canvas: the game's world keeps the size it was created with, and so does the number of
+      // bubbleroids in it, so a larger canvas shows the same play field magnified. Changing the
+      // world, and the density of things in it, part way through a game would change how it
+      // plays and break its replay, so it is left alone.
+
+      if ((raster != null) && ((width != this.width) || (height != this.height)))
+      {
+         raster.resize(width, height);
+      }
+      if (dirty != null)
+      {
+         dirty = new BubbleroidsDirty(width, height);
+      }
+      this.width  = width;
+      this.height = height;
+
+      scale   = Math.min((double)width / game.world.width, (double)height / game.world.height);
+      centerX = width / 2;
+      centerY = height / 2;
+      k       = Math.max(1, (int)Math.round(scale));
+      photon  = new Polygon();
+      photon.addPoint(k, k);
+      photon.addPoint(k, -k);
+      photon.addPoint(-k, k);
+      photon.addPoint(-k, -k);
+      bars    = new Polygon[] { bar(0, 0, centerX - (int)Math.round(game.world.width2 * scale), height),
+                                bar(centerX + (int)Math.round(game.world.width2 * scale), 0, width, height),
+                                bar(0, 0, width, centerY - (int)Math.round(game.world.height2 * scale)),
+                                bar(0, centerY + (int)Math.round(game.world.height2 * scale), width, height) };
+   }
+
+
+   static Polygon bar(int left, int top, int right, int bottom)
+   {
+      // A rectangle as a polygon, so it can be drawn on the raster as well, or an empty one.
+
+      if ((left >= right) || (top >= bottom))
+      {
+         return(new Polygon());
+      }
+      return(new Polygon(new int[] { left, right, right, left }, new int[] { top, top, bottom, bottom }, 4));
+   }
+
+
+   public void layout(String status)
+   {
+      // Start a frame, bringing the lines of text up to date for it. The status is shown under
+      // the title when no game is being played. The timing lines are left to the caller.
+
+      bubbles.frame();
+      hud.number(SCORE_LINE, "Score: ", game.score);
+      hud.number(SHIPS_LINE, "Ships: ", game.shipsLeft);
+      hud.number(HIGH_LINE, "High: ", game.highScore);
+      if (!game.playing)
+      {
+         hud.text(TITLE_LINE, "B U B B L E R O I D S");
+         hud.text(STATUS_LINE, status);
+      }
+   }
+
+
+   public void draw(Graphics g, double alpha)
+   {
+      // Draw the whole frame with the given graphics, the fraction alpha of a tick past the last
+      // one.
+
+      clip(g, 0, 0, width, height);
+      render(g, alpha);
+   }
+
+
+   public boolean measure(double alpha)
+   {
+      // Mark where things are in this frame to find the parts of the canvas that changed,
+      // returning false if the frame should be drawn whole instead.
+
+      measuring = true;
+      render(null, alpha);
+      measuring = false;
+      return(dirty.merge());
+   }
+
+
+   public void drawDirty(Graphics g, double alpha)
+   {
+      int i;
+
+      // Draw the dirty rectangles of a measured frame, a rectangle at a time.
+
+      for (i = 0; i < dirty.count; i++)
+      {
+         clip(g, dirty.x[i], dirty.y[i], dirty.w[i], dirty.h[i]);
+         render(g, alpha);
+      }
+   }
+
+
+   public BufferedImage drawRaster(double alpha)
+   {
+      Graphics g;
+
+      // Put the frame together on the raster and add the text over it, returning its image.
+
+      clip(null, 0, 0, width, height);
+      raster.begin(Color.black);
+      drawScene(null, alpha);
+      raster.end();
+      g = raster.image.createGraphics();
+      drawHud(g);
+      g.dispose();
+      return(raster.image);
+   }
+
+
+   void clip(Graphics g, int x, int y, int width, int height)
+   {
+      if (g != null)
+      {
+         g.setClip(x, y, width, height);
+      }
+      clipLeft   = x;
+      clipTop    = y;
+      clipRight  = x + width;
+      clipBottom = y + height;
+   }
+
+
+   boolean touches(int x, int y, int width, int height)
+   {
+      // Whether to draw something covering the given box, which is marked dirty instead while
+      // measuring.
+
+      if (measuring)
+      {
+         dirty.add(x, y, width, height);
+         return(false);
+      }
+      return((x < clipRight) && (x + width > clipLeft) && (y < clipBottom) && (y + height > clipTop));
+   }
+
+
+   boolean touches(Polygon p)
+   {
+      int i, left, top, right, bottom;
+
+      // Whether to draw a polygon, with a pixel to spare around its outline.
+
+      left   = right  = p.xpoints[0];
+      top    = bottom = p.ypoints[0];
+      for (i = 1; i < p.npoints; i++)
+      {
+         left   = Math.min(left, p.xpoints[i]);
+         right  = Math.max(right, p.xpoints[i]);
+         top    = Math.min(top, p.ypoints[i]);
+         bottom = Math.max(bottom, p.ypoints[i]);
+      }
+      return(touches(left - 1, top - 1, right - left + 3, bottom - top + 3));
+   }
+
+
+   void drawLine(Graphics g, int line, int x, int y)
+   {
+      // Draw a line of text with its baseline at y.
+
+      if (touches(x, y - hud.ascent, hud.width(line), hud.height))
+      {
+         hud.draw(g, line, x, y);
+      }
+   }
+
+
+   // Draw everything with the given graphics, the fraction alpha of a tick past the last one.
+   public void render(Graphics g, double alpha)
+   {
+      drawScene(g, alpha);
+      drawHud(g);
+   }
+
+
+   void drawScene(Graphics g, double alpha)
+   {
+      BubbleroidsSprite   s;
+      BubbleroidsEntities e;
+      int                 i;
+      int                 c;
+      int                 x, y, r2;
+      int                 x0, y0, x1, y1;
+      double              cos, sin, seconds;
+
+      // Fill in background and stars, within the clip box. The sky does not move, so there is
+      // nothing to mark for it. The raster starts each frame black.
+
+      seconds = (skySeconds >= 0.0) ? skySeconds : System.nanoTime() / 1e9;
+      if (raster != null)
+      {
+         if (detail)
+         {
+            raster.sky(starfield, seconds);
+         }
+      }
+      else if (!measuring)
+      {
+         if (detail)
+         {
+            starfield.draw(g, width, height, seconds);
+         }
+         else
+         {
+            g.setColor(Color.black);
+            g.fillRect(0, 0, width, height);
+         }
+      }
+
+      // Draw photon bullets.
+
+      e = game.photons;
+      for (i = 0; i < e.size; i++)
+      {
+         if (e.active[i])
+         {
+            x = (int)Math.round(e.x(i, alpha) * scale) + centerX;
+            y = (int)Math.round(e.y(i, alpha) * scale) + centerY;
+            if (touches(x - photon.xpoints[0], y - photon.xpoints[0], 2 * photon.xpoints[0] + 1, 2 * photon.xpoints[0] + 1))
+            {
+               drawOutline(g, photon, x, y, Color.white);
+            }
+         }
+      }
+
+      // Draw the guided missile, counter is used to quickly fade color to black when near expiration.
+
+      s = game.missile;
+      c = Math.min(game.missileCounter * 24, 255);
+      if (s.active && touches(s.render(drawn, alpha, scale, centerX, centerY)))
+      {
+         drawOutline(g, drawn, 0, 0, GRAYS[c]);
+      }
+
+      // Draw the bubbleroids from their cached images.
+
+      e = game.bubbleroids;
+      for (i = 0; i < e.size; i++)
+      {
+         if (e.active[i])
+         {
+            x  = (int)Math.round((e.x(i, alpha) - e.radius[i]) * scale) + centerX;
+            y  = (int)Math.round((e.y(i, alpha) - e.radius[i]) * scale) + centerY;
+            r2 = (int)Math.round(e.radius[i] * 2.0 * scale);
+            if (touches(x, y, r2 + 1, r2 + 1))
+            {
+               drawBubble(g, BubbleroidsGame.BUBBLE_COLORS[game.bubbleroidColor[i]], x, y, r2);
+            }
+         }
+      }
+
+      // Draw the flying saucer.
+
+      s = game.ufo;
+      if (s.active && touches(s.render(drawn, alpha, scale, centerX, centerY)))
+      {
+         if (detail)
+         {
+            drawFill(g, drawn, Color.black);
+         }
+         drawOutline(g, drawn, 0, 0, Color.white);
+      }
+
+      // Draw the ship, counter is used to fade color to white on hyperspace.
+
+      s = game.ship;
+      c = 255 - (255 / BubbleroidsGame.HYPER_COUNT) * game.hyperCounter;
+      if (s.active && touches(s.render(drawn, alpha, scale, centerX, centerY)))
+      {
+         if (detail && (game.hyperCounter == 0))
+         {
+            drawFill(g, drawn, Color.black);
+         }
+         drawOutline(g, drawn, 0, 0, GRAYS[c]);
+      }
+
+      // Draw any explosion debris, counters are used to fade color to black. With detail off,
+      // only every other piece is drawn.
+
+      e = game.explosions;
+      for (i = 0; i < e.size; i++)
+      {
+         if (e.active[i] && (detail || ((i & 1) == 0)))
+         {
+            // Rotate the debris line segment and move it to its screen position.
+
+            cos = Math.cos(e.angle(i, alpha)) * scale;
+            sin = Math.sin(e.angle(i, alpha)) * scale;
+            x   = (int)Math.round(e.x(i, alpha) * scale) + centerX;
+            y   = (int)Math.round(e.y(i, alpha) * scale) + centerY;
+            x0  = debrisX(i, 0, cos, sin) + x;
+            y0  = debrisY(i, 0, cos, sin) + y;
+            x1  = debrisX(i, 2, cos, sin) + x;
+            y1  = debrisY(i, 2, cos, sin) + y;
+            if (touches(Math.min(x0, x1), Math.min(y0, y1), Math.abs(x1 - x0) + 1, Math.abs(y1 - y0) + 1))
+            {
+               drawSegment(g, x0, y0, x1, y1, game.explosionFade[i][e.counter[i]]);
+            }
+         }
+      }
+
+      // Black out the canvas beyond the edges of space. The bars only move when the canvas is
+      // resized, which draws the whole frame, so there is nothing to mark for them.
+
+      if (!measuring)
+      {
+         for (i = 0; i < bars.length; i++)
+         {
+            if (bars[i].npoints > 0)
+            {
+               drawFill(g, bars[i], Color.black);
+            }
+         }
+      }
+   }
+
+
+   void drawHud(Graphics g)
+   {
+      // Display status and messages, as laid out for this frame.
+
+      drawLine(g, SCORE_LINE, fontWidth, fontHeight);
+      drawLine(g, SHIPS_LINE, fontWidth, height - fontHeight);
+      drawLine(g, HIGH_LINE, width - (fontWidth + hud.width(HIGH_LINE)), fontHeight);
+      if (timing)
+      {
+         drawLine(g, PACER_LINE, width - (fontWidth + hud.width(PACER_LINE)), height - fontHeight);
+         drawLine(g, SCREEN_LINE, width - (fontWidth + hud.width(SCREEN_LINE)), height - 2 * fontHeight);
+         drawLine(g, BUBBLES_LINE, width - (fontWidth + hud.width(BUBBLES_LINE)), height - 3 * fontHeight);
+         if ((dirty != null) || (raster != null))
+         {
+            drawLine(g, RENDER_LINE, width - (fontWidth + hud.width(RENDER_LINE)), height - 4 * fontHeight);
+         }
+      }
+
+      if (!game.playing)
+      {
+         drawLine(g, TITLE_LINE, (width - hud.width(TITLE_LINE)) / 2, height / 2);
+         drawLine(g, STATUS_LINE, (width - hud.width(STATUS_LINE)) / 2, height / 4);
+      }
+   }
+
+
+   // Drawing calls, which put things on the raster instead when there is one. Outlines are
+   // closed polygons, drawn moved by x, y.
+
+   void drawOutline(Graphics g, Polygon p, int x, int y, Color color)
+   {
+      if (raster != null)
+      {
+         raster.polygon(p, x, y, color, false);
+         return;
+      }
+      g.setColor(color);
+      g.translate(x, y);
+      g.drawPolygon(p);
+      g.translate(-x, -y);
+   }
+
+
+   void drawFill(Graphics g, Polygon p, Color color)
+   {
+      if (raster != null)
+      {
+         raster.polygon(p, 0, 0, color, true);
+         return;
+      }
+      g.setColor(color);
+      g.fillPolygon(p);
+   }
+
+
+   void drawSegment(Graphics g, int x0, int y0, int x1, int y1, Color color)
+   {
+      if (raster != null)
+      {
+         raster.line(x0, y0, x1, y1, color);
+         return;
+      }
+      g.setColor(color);
+      g.drawLine(x0, y0, x1, y1);
+   }
+
+
+   void drawBubble(Graphics g, Color color, int x, int y, int diameter)
+   {
+      if (raster != null)
+      {
+         raster.oval(x, y, diameter, color, detail);
+         return;
+      }
+      bubbles.draw(g, color, x, y, diameter, detail);
+   }
+
+
+   // Rotated coordinates of one end of a piece of debris, relative to its position.
+   public int debrisX(int i, int end, double cos, double sin)
+   {
+      int[] shape = game.explosionShape;
+
+      return((int)Math.round(shape[4 * i + end] * cos + shape[4 * i + end + 1] * sin));
+   }
+
+
+   public int debrisY(int i, int end, double cos, double sin)
+   {
+      int[] shape = game.explosionShape;
+
+      return((int)Math.round(shape[4 * i + end + 1] * cos - shape[4 * i + end] * sin));
+   }
+}
@@ -0,0 +1,29 @@
+/************************************************************************************************
+*
+*  BubbleroidsWorld.java
+*
+************************************************************************************************/
+
+/************************************************************************************************
+*  The BubbleroidsWorld class is the size of the playing area of one game. Positions are kept
+*  relative to its middle, and sprites and stores wrap around its edges. Each game has its own,
+*  handed to its sprites and stores when they are created, so games of different sizes can be
+*  played side by side, on different threads, without changing each other's world.
+************************************************************************************************/
+
+class BubbleroidsWorld {
+   // Fields:
+
+   final int width, width2;     // Dimensions of the playing area, and half of them.
+   final int height, height2;
+
+   // Constructors:
+
+   public BubbleroidsWorld(int width, int height)
+   {
+      this.width   = width;
+      this.width2  = width / 2;
+      this.height  = height;
+      this.height2 = height / 2;
+   }
+}
@@ -1,4 +1,4 @@
-javac -d . Bubbleroids.java
+javac -d . *.java
 jar cfm Bubbleroids.jar bubbleroids.mf *.class *.au
 
 